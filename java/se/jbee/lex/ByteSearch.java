@@ -0,0 +1,78 @@
+package se.jbee.lex;
+
+/**
+ * The loops that search data for a byte, a pair of bytes or a class of bytes.
+ *
+ * These are the hot spots when scanning large data. This implementation tests
+ * a byte at a time. When the Vector API is available (and not disabled with
+ * -Dlex.vector=false) {@link #BYTES} is a {@code VectorByteSearch} testing many
+ * bytes per step instead. Otherwise it is a {@link SwarByteSearch} testing 8
+ * bytes per step (unless disabled with -Dlex.swar=false).
+ *
+ * The classes are those of the special sets # @ _ ^ $ and ? given by their
+ * instruction.
+ */
+class ByteSearch {
+
+	static final ByteSearch BYTES = init();
+
+	private static ByteSearch init() {
+		if (Boolean.parseBoolean(System.getProperty("lex.vector", "true"))) {
+			try {
+				return (ByteSearch) Class.forName("se.jbee.lex.VectorByteSearch").getDeclaredConstructor().newInstance();
+			} catch (Throwable e) {
+				// Vector API not available
+			}
+		}
+		return Boolean.parseBoolean(System.getProperty("lex.swar", "true")) ? new SwarByteSearch() : new ByteSearch();
+	}
+
+	/**
+	 * @return first position of b in [from,to) or to
+	 */
+	int indexOf(byte[] data, int from, int to, byte b) {
+		while (from < to && data[from] != b) from++;
+		return from;
+	}
+
+	/**
+	 * @return first position i in [from,to) where data[i] is first and
+	 *         data[i+dist] is last, or to. Data has to exist up to to+dist.
+	 */
+	int indexOf(byte[] data, int from, int to, byte first, byte last, int dist) {
+		while (from < to && (data[from] != first || data[from+dist] != last)) from++;
+		return from;
+	}
+
+	/**
+	 * @return first position in [from,to) with a byte in the class or to
+	 */
+	int indexOfClass(byte[] data, int from, int to, byte op) {
+		while (from < to && !inClass(op, data[from])) from++;
+		return from;
+	}
+
+	/**
+	 * @return first position in [from,to) with a byte not in the class or to
+	 */
+	int skipClass(byte[] data, int from, int to, byte op) {
+		while (from < to && inClass(op, data[from])) from++;
+		return from;
+	}
+
+	static boolean isClass(byte op) {
+		return op == '#' || op == '@' || op == '_' || op == '^' || op == '$' || op == '?';
+	}
+
+	static boolean inClass(byte op, byte chr) {
+		switch (op) {
+		case '#': return (0xFFFF & chr - '0') < 10;
+		case '@': return (0xFFFF & (chr & 0xDF) - 'A') < 26;
+		case '_': return Lex.isWS(chr);
+		case '^': return !Lex.isWS(chr);
+		case '$': return Lex.isNL(chr);
+		case '?': return true;
+		default : return false;
+		}
+	}
+}
@@ -0,0 +1,724 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.fill;
+import static se.jbee.lex.ByteSearch.BYTES;
+import static se.jbee.lex.ByteSearch.isClass;
+import static se.jbee.lex.Lex.CODE_POINT;
+import static se.jbee.lex.Lex.FRAME;
+import static se.jbee.lex.Lex.GROUP;
+import static se.jbee.lex.Lex.PLUS;
+import static se.jbee.lex.Lex.SCAN;
+import static se.jbee.lex.Lex.codePoint;
+import static se.jbee.lex.Lex.hopSite;
+import static se.jbee.lex.Lex.inSetUtf8;
+import static se.jbee.lex.Lex.isOp;
+import static se.jbee.lex.Lex.isUtf8Set;
+import static se.jbee.lex.Lex.literal;
+import static se.jbee.lex.Lex.literalEnd;
+import static se.jbee.lex.Lex.mismatchAt;
+import static se.jbee.lex.Lex.pos;
+import static se.jbee.lex.Lex.push;
+import static se.jbee.lex.Lex.skipBeyondBlock;
+import static se.jbee.lex.Lex.skipBeyondSet;
+import static se.jbee.lex.Lex.skipToNext;
+import static se.jbee.lex.Literal.isLetter;
+import static se.jbee.lex.Literal.lowerCase;
+
+import se.jbee.lex.Lex.MatchSink;
+
+/**
+ * A pattern prepared for repeated matching.
+ *
+ * The interpreter {@link Lex#match(byte[], int, byte[], int, int, int)} finds
+ * the end of groups and sets by scanning the pattern each time it needs to skip
+ * them and tests a set by walking its members. Here this is done once: ends are
+ * kept in a jump table, every set (including the special sets) becomes a 256
+ * bit membership table and the literal used to hop forward in a scan is
+ * extracted per scan site together with its search table (see
+ * {@link Literal}).
+ *
+ * Groups are numbered from 1 in order of their opening ( or [ so that a match
+ * can record where the match and each of the groups started and ended (see
+ * {@link #match(byte[], int, int, int[])}).
+ *
+ * When compiled to ignore case ASCII letters match in both cases: sets are
+ * folded in their tables, literals compare case-insensitively when their bytes
+ * differ and the literals scans hop to are searched ignoring case.
+ *
+ * Instances are immutable and can be shared between threads. Results are
+ * identical to those of the interpreter (unless case is ignored).
+ */
+public final class CompiledLex {
+
+	private static final byte[] SPECIAL_SETS = { '#', '@', '_', '^', '$' };
+
+	private final byte[] pattern;
+	/**
+	 * For ( and [ the position beyond the block, for { the position beyond the set
+	 */
+	private final int[] next;
+	/**
+	 * For any set (special or {...}) the index of its first long in {@link #bits}
+	 */
+	private final int[] sets;
+	/**
+	 * 4 longs (256 bits) for each set, one bit for each byte value
+	 */
+	private final long[] bits;
+	/**
+	 * For { true, if the set matches code points (see
+	 * {@link Lex#isUtf8Set(byte[], int)}), its bits then only cover ASCII
+	 */
+	private final boolean[] utf8;
+	private final boolean hasUtf8;
+	/**
+	 * For ~( at p-1 the literal to hop to (null if there is none)
+	 */
+	private final Literal[] hopTo;
+	private final int[] hopOffset;
+	/**
+	 * For ( and [ the number of the group (from 1)
+	 */
+	private final int[] group;
+	/**
+	 * For ( and [ the number of the last group within the group
+	 */
+	private final int[] lastGroup;
+	private final int groups;
+	/**
+	 * Position of the ~ the pattern starts with (after `) or -1
+	 */
+	private final int leadingScan;
+	/**
+	 * true, if ASCII letters match in both cases
+	 */
+	private final boolean ignoreCase;
+	/**
+	 * What is known about matches of the pattern
+	 */
+	private final LexInfo info;
+	/**
+	 * The longest literal each complete match contains or null
+	 */
+	private final Literal required;
+	/**
+	 * The generated code matching the pattern (see {@link #jit()}) or null
+	 */
+	private final LexJit.Matcher jit;
+
+	CompiledLex(byte[] pattern, boolean ignoreCase) {
+		checkWellFormed(pattern);
+		this.pattern = pattern.clone();
+		this.ignoreCase = ignoreCase;
+		final int len = pattern.length;
+		this.next = new int[len];
+		this.sets = new int[len];
+		this.hopTo = new Literal[len];
+		this.hopOffset = new int[len];
+		this.group = new int[len];
+		this.lastGroup = new int[len];
+		this.utf8 = new boolean[len];
+		boolean hasUtf8 = false;
+		int setCount = SPECIAL_SETS.length;
+		for (int i = 0; i < len; i++) {
+			byte op = pattern[i];
+			if (op == '\\') {
+				i++;
+			} else if (op == '{') {
+				setCount++;
+				i = skipBeyondSet(pattern, i)-1;
+			}
+		}
+		this.bits = new long[setCount * 4];
+		for (int row = 0; row < SPECIAL_SETS.length; row++)
+			for (int b = 0; b < 256; b++)
+				if ((int)Lex.match(SPECIAL_SETS, row, new byte[] { (byte) b }, 0, -1, 1) >= 0) // same test as the interpreter
+					bits[row * 4 + (b >> 6)] |= 1L << b;
+		int row = SPECIAL_SETS.length;
+		for (int i = 0; i < len; i++) {
+			byte op = pattern[i];
+			switch (op) {
+			case '\\': i++; break;
+			case '#': sets[i] = 0; break;
+			case '@': sets[i] = 4; break;
+			case '_': sets[i] = 8; break;
+			case '^': sets[i] = 12; break;
+			case '$': sets[i] = 16; break;
+			case '{':
+				sets[i] = row * 4;
+				utf8[i] = i + 1 < len && isUtf8Set(pattern, i+1);
+				hasUtf8 |= utf8[i];
+				if (i + 1 < len)
+					for (int b = 0; b < (utf8[i] ? 128 : 256); b++)
+						if (inSet(pattern, i+1, (byte) b, ignoreCase))
+							bits[row * 4 + (b >> 6)] |= 1L << b;
+				row++;
+				next[i] = skipBeyondSet(pattern, i);
+				i = next[i]-1;
+				break;
+			case '~': if (i + 1 < len && pattern[i+1] == '(') initHop(i+1); break;
+			}
+		}
+		int groups = 0;
+		int[] open = new int[len]; // blocks not yet closed
+		int level = 0;
+		for (int i = 0; i < len; i++) {
+			byte op = pattern[i];
+			if (op == '\\') {
+				i++;
+			} else if (op == '{') {
+				i = next[i]-1;
+			} else if (op == '(' || op == '[') {
+				group[i] = ++groups;
+				open[level++] = i;
+			} else if ((op == ')' || op == ']' || op == '}') && level > 0) { // same block end as skipBeyondBlock
+				int pOpen = open[--level];
+				next[pOpen] = i+1;
+				lastGroup[pOpen] = groups;
+			}
+		}
+		this.groups = groups;
+		this.hasUtf8 = hasUtf8;
+		int p0 = len > 0 && pattern[0] == '`' ? 1 : 0;
+		this.leadingScan = p0 < len && pattern[p0] == '~' ? p0 : -1;
+		this.info = new LexInfo(pattern, ignoreCase);
+		this.required = info.longestLiteral();
+		this.jit = null;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a set or block of the pattern is not closed or it ends
+	 *             with a \, the engines would run beyond the end of the pattern
+	 */
+	private static void checkWellFormed(byte[] pattern) {
+		final int len = pattern.length;
+		int[] open = new int[len];
+		int level = 0;
+		for (int i = 0; i < len; i++) {
+			byte op = pattern[i];
+			if (op == '\\') {
+				if (++i >= len)
+					throw new IllegalArgumentException("Nothing escaped at "+(i-1)+": "+new String(pattern, UTF_8));
+			} else if (op == '{') { // same set end as skipBeyondSet
+				int pSet = i;
+				do {
+					if (++i >= len)
+						throw new IllegalArgumentException("Unclosed set at "+pSet+": "+new String(pattern, UTF_8));
+					op = pattern[i];
+					if (op == '\\' || op == '@')
+						i++;
+				} while (op != '}');
+			} else if (op == '(' || op == '[') {
+				open[level++] = i;
+			} else if ((op == ')' || op == ']' || op == '}') && level > 0)
+				level--;
+		}
+		if (level > 0)
+			throw new IllegalArgumentException("Unclosed block at "+open[level-1]+": "+new String(pattern, UTF_8));
+	}
+
+	private CompiledLex(CompiledLex lex, LexJit.Matcher jit) {
+		this.pattern = lex.pattern;
+		this.ignoreCase = lex.ignoreCase;
+		this.next = lex.next;
+		this.sets = lex.sets;
+		this.bits = lex.bits;
+		this.utf8 = lex.utf8;
+		this.hasUtf8 = lex.hasUtf8;
+		this.hopTo = lex.hopTo;
+		this.hopOffset = lex.hopOffset;
+		this.group = lex.group;
+		this.lastGroup = lex.lastGroup;
+		this.groups = lex.groups;
+		this.leadingScan = lex.leadingScan;
+		this.info = lex.info;
+		this.required = lex.required;
+		this.jit = jit;
+	}
+
+	/**
+	 * Generates a class for this pattern doing the same matching with code
+	 * specific to the pattern (see {@link LexJit}). This is worth it for
+	 * patterns that are used a lot for a long time.
+	 *
+	 * Only {@link #match(byte[], int)} and {@link #match(byte[], int, int)} use
+	 * the generated code. Results are identical.
+	 *
+	 * @return a {@link CompiledLex} using generated code or this if the code
+	 *         could not be generated (as for patterns ignoring case or with
+	 *         sets of code points)
+	 */
+	public CompiledLex jit() {
+		if (jit != null || ignoreCase || hasUtf8)
+			return this;
+		LexJit.Matcher matcher = LexJit.generate(this, pattern);
+		return matcher == null ? this : new CompiledLex(this, matcher);
+	}
+
+	/**
+	 * When ignoring case a letter is in a set if either case is, in a set of
+	 * bytes not to match ({^...}) if both cases are.
+	 */
+	private static boolean inSet(byte[] pattern, int p0, byte chr, boolean ignoreCase) {
+		boolean in = Lex.inSet(pattern, p0, chr);
+		if (!ignoreCase || !isLetter(chr))
+			return in;
+		boolean other = Lex.inSet(pattern, p0, (byte) (chr ^ 0x20));
+		return pattern[p0] == '^' ? in && other : in || other;
+	}
+
+	/**
+	 * Same analysis as in {@link Lex}'s scanHop, done once per scan site.
+	 */
+	private void initHop(int p0) {
+		long pmOffset = hopSite(pattern, p0);
+		int pm = (int)(pmOffset >> 32);
+		int offset = (int)pmOffset;
+		int pmEnd = literalEnd(pattern, pm);
+		if (pmEnd > pm) {
+			hopTo[p0] = new Literal(literal(pattern, pm, pmEnd), ignoreCase);
+			hopOffset[p0] = offset;
+		}
+	}
+
+	/**
+	 * @return number of groups ( and [ in the pattern
+	 */
+	public int groups() {
+		return groups;
+	}
+
+	public LexInfo info() {
+		return info;
+	}
+
+	public long match(byte[] data, int d0) {
+		return match(data, d0, data.length);
+	}
+
+	public long match(byte[] data, int d0, int dEnd) {
+		return jit != null
+				? jit.match(data, d0, dEnd)
+				: match(0, data, d0, dEnd, -1, -1, null);
+	}
+
+	/**
+	 * Tests if the pattern matches all of data[d0..dEnd) and ran to its end (or
+	 * to a ` ending it). Unlike a match that only succeeds because the data
+	 * ended this is used to validate input like a field of a record.
+	 *
+	 * Input that is too short or too long, starts with a byte no match starts
+	 * with or lacks the longest literal each match contains (see {@link #info()})
+	 * is rejected before the first instruction is evaluated.
+	 */
+	public boolean matches(byte[] data, int d0, int dEnd) {
+		if (!info.accepts(data, d0, dEnd, required))
+			return false;
+		long pndn = match(data, d0, dEnd);
+		return (int)pndn == dEnd && isComplete(pndn);
+	}
+
+	/**
+	 * @return true, if the result of a match is one where the pattern ran to
+	 *         its end (see {@link #matches(byte[], int, int)})
+	 */
+	boolean isComplete(long pndn) {
+		return (int)pndn >= 0 && isEnd(pattern, (int)(pndn >> 32));
+	}
+
+	/**
+	 * @return true, if the rest of the pattern from pn only ends blocks,
+	 *         repetitions or the match or has optional blocks, what it does
+	 *         when the data ended
+	 */
+	static boolean isEnd(byte[] pattern, int pn) {
+		for (; pn < pattern.length; pn++) {
+			byte op = pattern[pn];
+			if (op == '`' && pn > 0 && pattern[pn-1] != '(' && pattern[pn-1] != '[')
+				return true; // exit (unless first in block)
+			if (op == '[') {
+				pn = skipBeyondBlock(pattern, pn+1) - 1;
+			} else if (op != ')' && op != ']' && op != '}' && op != '+')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @see Lex#match(byte[], int, byte[], int, int, int)
+	 */
+	public long match(int p0, byte[] data, int d0, int pPlus, int maxOps) {
+		return match(p0, data, d0, data.length, pPlus, maxOps, null);
+	}
+
+	/**
+	 * Like {@link #match(byte[], int, int)} but also records where the match and
+	 * each group started and ended.
+	 *
+	 * slots[0] and slots[1] are start and end of the match. When the pattern
+	 * starts with a scan the match starts where the scan stopped. slots[2g] and
+	 * slots[2g+1] are start and end of group g. For a repeated group these are
+	 * the positions of its last repetition. Groups that did not match are -1 (as
+	 * is the match on mismatch). Groups within a repetition that failed part way
+	 * may refer to the failed repetition.
+	 *
+	 * @param slots
+	 *            at least 2 * ({@link #groups()} + 1) long
+	 */
+	public long match(byte[] data, int d0, int dEnd, int[] slots) {
+		fill(slots, 0, groups+groups+2, -1);
+		slots[0] = d0;
+		long pndn = match(0, data, d0, dEnd, -1, -1, slots);
+		int dn = (int)pndn;
+		if (dn < 0)
+			slots[0] = -1;
+		else
+			slots[1] = dn;
+		return pndn;
+	}
+
+	/**
+	 * Like {@link Lex#findAll(byte[], byte[], int, int, MatchSink)} but passes
+	 * where the match started (see {@link #match(byte[], int, int, int[])}) to
+	 * the sink.
+	 */
+	public int findAll(byte[] data, int from, int to, MatchSink sink) {
+		int[] slots = new int[groups+groups+2];
+		int c = 0;
+		int d0 = from;
+		while (d0 < to) {
+			int dn = (int)match(data, d0, to, slots);
+			if (dn <= d0)
+				return c;
+			sink.match(slots[0], dn);
+			c++;
+			d0 = dn;
+		}
+		return c;
+	}
+
+	/**
+	 * @return the literal the scan at the start of the pattern hops to, null if
+	 *         the pattern does not start with a scan to a literal
+	 */
+	Literal leadingLiteral() {
+		return leadingScan < 0 ? null : hopTo[leadingScan+1];
+	}
+
+	/**
+	 * @return number of bytes between the position a leading scan stops at and
+	 *         its literal
+	 */
+	int leadingOffset() {
+		return hopOffset[leadingScan+1];
+	}
+
+	/**
+	 * @return true, if the leading scan stops at s given its literal occurs at s
+	 *         plus offset
+	 */
+	boolean leadingScanStopsAt(byte[] data, int s, int dEnd) {
+		return (int)match(leadingScan+1, data, s, dEnd, -1, 1, null) >= 0;
+	}
+
+	/**
+	 * @return the position the scan at the start of the pattern stops at when
+	 *         started at d0 (dEnd if it found nothing), -1 if the pattern does
+	 *         not start with a scan
+	 */
+	int leadingScanEnd(byte[] data, int d0, int dEnd) {
+		return leadingScan < 0 ? -1 : scan(leadingScan+1, data, d0, dEnd);
+	}
+
+	/**
+	 * @return position from where the scan at the start of the pattern started
+	 *         at d0 continues when more data follows dEnd (the positions before
+	 *         are no candidates whatever follows), d0 if that is not known, -1
+	 *         if the pattern does not start with a scan
+	 */
+	int leadingScanResume(byte[] data, int d0, int dEnd) {
+		if (leadingScan < 0)
+			return -1;
+		int p0 = leadingScan+1;
+		int pEnd = next[p0] > p0 ? next[p0] : p0+1;
+		for (int p = p0; p < pEnd; p++)
+			if (pattern[p] == '~')
+				return d0; // a candidate whose own scan ran into dEnd is a mismatch
+			else if (pattern[p] == '\\')
+				p++;
+		Literal literal = hopTo[p0];
+		int keep = 3 + (literal == null ? 0 : hopOffset[p0] + literal.bytes.length); // literal or code point cut off
+		return Math.max(d0, Math.min(scan(p0, data, d0, dEnd), dEnd - keep));
+	}
+
+	/**
+	 * @return (pn,dn) of the match continuing after the leading scan stopped at s
+	 */
+	long matchAfterLeadingScan(byte[] data, int s, int dEnd) {
+		return match(leadingScan+1, data, s, dEnd, -1, -1, null);
+	}
+
+	/**
+	 * Same as the recursive descent of the interpreter but with the frames of
+	 * groups, repetitions and candidates of scans kept on a per thread stack.
+	 * While a scan tests a candidate nothing is captured, the candidate found
+	 * is matched again by the caller.
+	 */
+	private long match(int p0, byte[] data, int d0, int dEnd, int pPlus, int maxOps, int[] slots) {
+		final byte[] pattern = this.pattern;
+		int pn = p0;
+		int dn = d0;
+		int dr = d0;
+		int pPlus0 = -1; // position from where to retry (last op in loop on this level)
+		boolean plussed = pPlus >= 0;
+		int[] capture = slots; // null while testing scan candidates
+		int scans = 0;
+		int[] stack = null;
+		int sp = 0;
+		long pndn;
+		call: while (true) {
+			block: {
+				while (pn < pattern.length && dn < dEnd && maxOps-- != 0) {
+					if (!plussed)
+						dr = mismatchAt(dn);
+					int pOp = pn;
+					byte op  = pattern[pn++];
+					switch (op) {
+					// literals:
+					case '\\':if (!isLiteral(pattern[pn++], data[dn++])) { pndn = pos(pOp, dr); break block; } break;
+					default : if (!isLiteral(op, data[dn++]))          { pndn = pos(pOp, dr); break block; } break;
+					// special sets...
+					case '?': dn++; break;
+					case '^':
+					case '_':
+					case '$':
+					case '@':
+					case '#': if (!isMember(sets[pOp], data[dn++])) { pndn = pos(pOp, dr); break block; } break;
+					// groups:
+					case '}':
+					case ')':
+					case ']': if (pn != pPlus) { pndn = pos(pn, dn); break block; } break; // SKIP before the + right after
+					case '`': if (pOp > p0)    { pndn = pos(pn, dn); break block; } break; // NOOP on first in block
+					case '(': // group must occur
+					case '[': // group can occur
+						if (!plussed || p0 != pOp) {
+							stack = push(stack, sp, GROUP, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pn; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = -1;
+							continue call;
+						}
+						break;
+					case '~': { // scan
+						int cand = candidate(pn, data, dn, dEnd);
+						if (cand < dEnd && isTested(pn)) {
+							stack = push(stack, sp, SCAN, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, cand, 0, 0, 0);
+							sp += FRAME;
+							scans++;
+							capture = null;
+							p0 = pn; dn = cand; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+							continue call;
+						}
+						if ((dn = cand) >= dEnd) { pndn = pos(pn, dr); break block; }
+						if (pOp == leadingScan && capture != null)
+							capture[0] = dn;
+						break;
+					}
+					case '+': // retry:
+						if (pOp == pPlus) { // reached same + again
+							if (capture != null && group[p0] > 0)
+								capture(capture, p0, dr, dn);
+							pn = p0;        // go back to loop start
+							dr = dn;        // remember successful match position
+						} else if (pOp > p0 && pattern[pPlus0] != '+') {
+							if (maxOps < 0 && isClass(pattern[pPlus0])) { // run of a special set
+								dn = BYTES.skipClass(data, dn, dEnd, pattern[pPlus0]);
+							} else if (maxOps < 0 && pattern[pPlus0] == '{') { // run of a set
+								dn = skipSet(pPlus0, data, dn, dEnd);
+							} else {
+								stack = push(stack, sp, PLUS, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+								sp += FRAME;
+								p0 = pPlus0; pn = p0; dr = dn; pPlus0 = -1; pPlus = pOp; plussed = true;
+								continue call;
+							}
+						}
+						break;
+					// set:
+					case '{':
+						if (!isMember(sets[pOp], data[dn++])) {
+							if (!utf8[pOp] || data[dn-1] >= 0) { pndn = pos(pOp, dr); break block; } // mismatch
+							int cp = codePoint(data, dn-1, dEnd);
+							if (!inSetUtf8(pattern, pOp+1, cp & CODE_POINT)) { pndn = pos(pOp, dr); break block; }
+							dn += (cp >>> 24) - 1;
+						}
+						pn = plussed && p0 == pOp ? pPlus : next[pOp];
+						break;
+					}
+					pPlus0 = pOp; // remember as loop start
+				}
+				if (capture != null && plussed && dn > dr && group[p0] > 0) // repetition ended by end of data
+					capture(capture, p0, dr, dn);
+				pndn = pos(pn, dn);
+			}
+			// return pndn to the caller
+			while (true) {
+				if (sp == 0)
+					return pndn;
+				sp -= FRAME;
+				int kind = stack[sp];
+				p0     = stack[sp+1];
+				pn     = stack[sp+2];
+				dn     = stack[sp+3];
+				dr     = stack[sp+4];
+				pPlus0 = stack[sp+5];
+				pPlus  = stack[sp+6];
+				maxOps = stack[sp+7];
+				int pOp = stack[sp+8];
+				plussed = pPlus >= 0;
+				if (kind == GROUP) {
+					if ((int)pndn < 0) {
+						if (pattern[pOp] == '(') { // when must occur its a mismatch
+							if (plussed)
+								pndn = pos(pOp, dr);
+							continue; // return
+						}
+						if (capture != null)
+							fill(capture, 2*group[pOp], 2*lastGroup[pOp]+2, -1);
+						pn = next[pOp];
+					} else {
+						if (capture != null)
+							capture(capture, pOp, dn, (int)pndn);
+						pn = (int)(pndn >> 32);
+						dn = (int)pndn;
+					}
+				} else if (kind == PLUS) {
+					dn = (int)pndn;
+					if (dn < 0)
+						dn = mismatchAt(dn); // reverses a mismatch by applying function again (blocks return positive)
+				} else { // SCAN
+					int cand = stack[sp+9];
+					if ((int)pndn < 0) { // next candidate
+						cand = ++cand < dEnd ? candidate(pn, data, cand, dEnd) : dEnd;
+						if (cand < dEnd) {
+							stack[sp+9] = cand;
+							sp += FRAME;
+							p0 = pn; dn = cand; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+							continue call;
+						}
+					}
+					if (--scans == 0)
+						capture = slots;
+					if (cand >= dEnd) {
+						pndn = pos(pn, dr);
+						continue; // return
+					}
+					dn = cand;
+					if (pOp == leadingScan && capture != null)
+						capture[0] = dn;
+				}
+				pPlus0 = pOp; // remember as loop start
+				continue call;
+			}
+		}
+	}
+
+	private void capture(int[] slots, int pGroup, int start, int end) {
+		int g = group[pGroup];
+		slots[g+g] = start;
+		slots[g+g+1] = end;
+	}
+
+	/**
+	 * @return first position in [dn,dEnd) not matched by the set at pSet or dEnd
+	 */
+	private int skipSet(int pSet, byte[] data, int dn, int dEnd) {
+		final int set = sets[pSet];
+		while (dn < dEnd) {
+			byte b = data[dn];
+			if (isMember(set, b)) {
+				dn++;
+			} else {
+				if (!utf8[pSet] || b >= 0)
+					return dn;
+				int cp = codePoint(data, dn, dEnd);
+				if (!inSetUtf8(pattern, pSet+1, cp & CODE_POINT))
+					return dn;
+				dn += cp >>> 24;
+			}
+		}
+		return dn;
+	}
+
+	private boolean isMember(int set, byte chr) {
+		return (bits[set + ((chr & 0xFF) >> 6)] & 1L << chr) != 0L;
+	}
+
+	/*
+	 * Used by the code generated by LexJit
+	 */
+
+	int next(int p) {
+		return next[p];
+	}
+
+	boolean inSetAt(int pOp, byte chr) {
+		return isMember(sets[pOp], chr);
+	}
+
+	long matchPlussed(int pPlus0, byte[] data, int dn, int dEnd, int pPlus) {
+		return match(pPlus0, data, dn, dEnd, pPlus, -1, null);
+	}
+
+	int scan(int p0, byte[] data, int dn, int dEnd) {
+		dn = candidate(p0, data, dn, dEnd);
+		if (isTested(p0))
+			while (dn < dEnd && (int)match(p0, data, dn, dEnd, -1, 1, null) < 0)
+				dn = ++dn < dEnd ? candidate(p0, data, dn, dEnd) : dEnd;
+		return dn;
+	}
+
+	/**
+	 * @return true, if the data byte matches the literal byte of the pattern
+	 */
+	private boolean isLiteral(byte op, byte b) {
+		return op == b || ignoreCase && lowerCase(op) == lowerCase(b);
+	}
+
+	/**
+	 * @return true, if the positions a scan from p0 stops at are candidates
+	 *         that have to be tested by matching the instruction at p0
+	 */
+	private boolean isTested(int p0) {
+		return hopTo[p0] != null || !isClass(pattern[p0]) && isOp(pattern[p0]);
+	}
+
+	/**
+	 * @return first position in [dn,dEnd) the scan from p0 stops at or that is
+	 *         a candidate for it (see {@link #isTested(int)}), dEnd if there is
+	 *         none
+	 */
+	private int candidate(int p0, byte[] data, int dn, int dEnd) {
+		byte chr = pattern[p0];
+		if (chr == '+')
+			return dEnd; // mismatch
+		final Literal literal = hopTo[p0];
+		if (literal != null) {
+			final int offset = hopOffset[p0]; // the literal cannot occur before
+			dn = dn + offset < dEnd ? literal.indexOf(data, dn + offset, dEnd) : dEnd;
+			return dn >= dEnd ? dEnd : dn-offset;
+		}
+		if (isClass(chr)) {
+			dn = BYTES.indexOfClass(data, dn, dEnd, chr);
+		} else if (isOp(chr)) { // slow: pattern, only candidates starting with a byte the pattern can start with
+			final long[] first = info.scanFirst(p0);
+			if (first != null)
+				while (dn < dEnd && !LexInfo.isMember(first, data[dn])) dn++;
+		} else if (ignoreCase && isLetter(chr)) {
+			final byte lower = lowerCase(chr);
+			while (dn < dEnd && lowerCase(data[dn]) != lower) dn++;
+		} else
+			dn = skipToNext(chr, data, dn, dEnd);
+		return dn;
+	}
+}
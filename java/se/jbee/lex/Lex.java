@@ -2,7 +2,11 @@ package se.jbee.lex;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 
+import static se.jbee.lex.ByteSearch.BYTES;
+import static se.jbee.lex.ByteSearch.isClass;
+
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Lex is short for Linear expressions.
@@ -13,12 +17,66 @@ import java.nio.ByteBuffer;
  * features not needed so that it is both useful but also very simple and
  * compact to implement the matching algorithm.
  *
- * The matching algorithm is a single function (utilizing recursion).
+ * The matching algorithm is a single function. Instead of calling itself for
+ * groups, repetitions and the candidates of a scan it keeps the state of the
+ * caller in a frame on a stack (one int[] per thread reused by all matches).
+ * So patterns can be nested arbitrarily deep.
  */
 public final class Lex {
 
+	/**
+	 * Prepares the pattern for repeated matching. The analysis done by
+	 * {@link #match(byte[], int, byte[], int)} on each call is done once up front.
+	 *
+	 * @param pattern
+	 *            the "match program"
+	 * @return an immutable (thread-safe) compiled form of the pattern
+	 * @throws IllegalArgumentException
+	 *             if a set or block of the pattern is not closed or it ends
+	 *             with a \ (the position is given in the message)
+	 */
+	public static CompiledLex compile(byte[] pattern) {
+		return new CompiledLex(pattern, false);
+	}
+
+	/**
+	 * Like {@link #compile(byte[])} but with ignoreCase ASCII letters match in
+	 * both cases, whether given as literal, escaped, in a set or as a range of a
+	 * set. The data is not changed or copied.
+	 */
+	public static CompiledLex compile(byte[] pattern, boolean ignoreCase) {
+		return new CompiledLex(pattern, ignoreCase);
+	}
+
+	/**
+	 * Receives the matches found by
+	 * {@link Lex#findAll(byte[], byte[], int, int, MatchSink)}.
+	 */
+	public interface MatchSink {
+
+		/**
+		 * @param start
+		 *            data position where the successful attempt started
+		 * @param end
+		 *            data position after the match
+		 */
+		void match(int start, int end);
+	}
+
 	public static long match(byte[] pattern, int p0, byte[] data, int d0) {
-		return match(pattern, p0, data, d0, -1, -1);
+		return match(pattern, p0, data, d0, data.length, -1, -1);
+	}
+
+	/**
+	 * Like {@link #match(byte[], int, byte[], int)} but only considers the data
+	 * before dEnd.
+	 */
+	public static long match(byte[] pattern, int p0, byte[] data, int d0, int dEnd) {
+		return match(pattern, p0, data, d0, dEnd, -1, -1);
+	}
+
+	public static long match(byte[] pattern, int p0, byte[] data, int d0, int pPlus, int maxOps) {
+		return match(pattern, p0, data, d0, data.length, pPlus, maxOps);
 	}
 
 	/**
@@ -33,83 +91,392 @@ public final class Lex {
 	 *            the content to match
 	 * @param d0
 	 *            starting position in the content
+	 * @param dEnd
+	 *            end position (exclusive) in the content
 	 * @param pPlus
 	 *            pattern position for the + retried currently, or -1 if no repeat
 	 * @param maxOps
 	 *            maximal number of operations evaluated before returning, negative
-	 *            for unlimited
+	 *            for unlimited. Only counts operations on the level of p0, use
+	 *            a {@link LexBudget} to limit all work done.
 	 * @return end positions (pn,dn) implemented as long to make the algorithm
 	 *         allocation free. pn is next position in pattern, dn next position in
 	 *         data after the match. On mismatch dn is (-position -1), pn points to
 	 *         the instruction that did not match.
 	 */
-	public static long match(byte[] pattern, int p0, byte[] data, int d0, int pPlus, int maxOps) {
+	public static long match(byte[] pattern, int p0, byte[] data, int d0, int dEnd, int pPlus, int maxOps) {
+		return match(pattern, p0, data, d0, dEnd, pPlus, maxOps, null, null);
+	}
+
+	/**
+	 * Like {@link #match(byte[], int, byte[], int, int)} but stops when the
+	 * budget is exhausted. In that case pn is -1 (see {@link #isExhausted(long)})
+	 * and dn is the position reached encoded as mismatch.
+	 */
+	public static long match(byte[] pattern, int p0, byte[] data, int d0, int dEnd, LexBudget budget) {
+		if (budget.isExhausted())
+			return exhausted(d0);
+		return match(pattern, p0, data, d0, dEnd, -1, -1, budget, null);
+	}
+
+	/**
+	 * Like {@link #match(byte[], int, byte[], int, int)} but sets ended[0] to
+	 * true when the attempt ran into dEnd, that is when its outcome might be
+	 * different given more data.
+	 */
+	static long match(byte[] pattern, byte[] data, int d0, int dEnd, boolean[] ended) {
+		ended[0] = false;
+		return match(pattern, 0, data, d0, dEnd, -1, -1, null, ended);
+	}
+
+	/**
+	 * @return true, if the result is that of a match that ended because its
+	 *         {@link LexBudget} was exhausted
+	 */
+	public static boolean isExhausted(long pndn) {
+		return (int)(pndn >> 32) == -1;
+	}
+
+	private static long exhausted(int dn) {
+		return pos(-1, mismatchAt(dn));
+	}
+
+	/**
+	 * @return end for a scan or run from dn that does not pass more bytes than
+	 *         the budget has left
+	 */
+	private static int limit(LexBudget budget, int dn, int dEnd) {
+		return budget == null ? dEnd : (int)Math.min(dEnd, dn + budget.remaining());
+	}
+
+	private static long match(byte[] pattern, int p0, byte[] data, int d0, int dEnd, int pPlus, int maxOps, LexBudget budget, boolean[] ended) {
 		int pn = p0;
 		int dn = d0;
 		int dr = d0;
 		int pPlus0 = -1; // position from where to retry (last op in loop on this level)
 		boolean plussed = pPlus >= 0;
-		while (pn < pattern.length && dn < data.length && maxOps-- != 0) {
-			if (!plussed)
-				dr = mismatchAt(dn);
-			int pOp = pn;
-			byte op  = pattern[pn++];
-			switch (op) {
-			// literals:
-			case '\\':if (pattern[pn++] != data[dn++]) return pos(pOp, dr); break;
-			default : if (op != data[dn++])  return pos(pOp, dr); break;
-			// special sets...
-			case '?': dn++; break;
-			case '^': if (isWS(data[dn++]))  return pos(pOp, dr); break;
-			case '_': if (!isWS(data[dn++])) return pos(pOp, dr); break;
-			case '$': if (!isNL(data[dn++])) return pos(pOp, dr); break;
-			          // range test use: (unsigned)(number-lower) <= (upper-lower)
-			case '@': if ((0xFFFF & (data[dn++] & 0xDF) - 'A') >= 26) return pos(pOp, dr); break;
-			case '#': if ((0xFFFF & (data[dn++]) - '0') >= 10) return pos(pOp, dr); break;
-			// groups:
-			case '}':
-			case ')':
-			case ']': if (pn != pPlus) return pos(pn, dn); break; // SKIP before the + right after
-			case '`': if (pOp > p0)    return pos(pn, dn); break; // NOOP on first in block
-			case '(': // group must occur
-			case '[': // group can occur
-				if (!plussed || p0 != pOp) {
-					long pndn = match(pattern, pn, data, dn, -1, -1);
+		int[] stack = null; // frames of the callers, taken from STACK on first call
+		int sp = 0;
+		long pndn;
+		call: while (true) {
+			block: {
+				while (pn < pattern.length && dn < dEnd && maxOps-- != 0) {
+					if (budget != null && !budget.spend(1))
+						return exhausted(dn);
+					if (!plussed)
+						dr = mismatchAt(dn);
+					int pOp = pn;
+					byte op  = pattern[pn++];
+					switch (op) {
+					// literals:
+					case '\\':if (pattern[pn++] != data[dn++]) { pndn = pos(pOp, dr); break block; } break;
+					default : if (op != data[dn++])  { pndn = pos(pOp, dr); break block; } break;
+					// special sets...
+					case '?': dn++; break;
+					case '^': if (isWS(data[dn++]))  { pndn = pos(pOp, dr); break block; } break;
+					case '_': if (!isWS(data[dn++])) { pndn = pos(pOp, dr); break block; } break;
+					case '$': if (!isNL(data[dn++])) { pndn = pos(pOp, dr); break block; } break;
+					          // range test use: (unsigned)(number-lower) <= (upper-lower)
+					case '@': if ((0xFFFF & (data[dn++] & 0xDF) - 'A') >= 26) { pndn = pos(pOp, dr); break block; } break;
+					case '#': if ((0xFFFF & (data[dn++]) - '0') >= 10) { pndn = pos(pOp, dr); break block; } break;
+					// groups:
+					case '}':
+					case ')':
+					case ']': if (pn != pPlus) { pndn = pos(pn, dn); break block; } break; // SKIP before the + right after
+					case '`': if (pOp > p0)    { pndn = pos(pn, dn); break block; } break; // NOOP on first in block
+					case '(': // group must occur
+					case '[': // group can occur
+						if (!plussed || p0 != pOp) {
+							stack = push(stack, sp, GROUP, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pn; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = -1;
+							continue call;
+						}
+						break;
+					case '~': { // scan
+						int sEnd = limit(budget, dn, dEnd);
+						int s = scanDirect(pattern, pn, data, dn, sEnd);
+						if (budget != null && (s >= sEnd && sEnd < dEnd || !budget.spend(s < 0 ? 0 : s-dn)))
+							return exhausted(dn);
+						if (s < 0) { // candidates have to be tested by matching from pn
+							long pmOffset = pattern[pn] == '(' ? hopSite(pattern, pn) : pos(pn, 0);
+							int pm = (int)(pmOffset >> 32);
+							int pmEnd = pattern[pn] == '(' ? literalEnd(pattern, pm) : pm;
+							int offset = pmEnd == pm ? 0 : (int)pmOffset;
+							int cand = pmEnd == pm ? dn : hop(pattern, pm, pmEnd, data, dn + offset, sEnd);
+							if (budget != null && (cand >= sEnd && sEnd < dEnd || !budget.spend(Math.min(cand, dEnd)-dn)))
+								return exhausted(dn);
+							if (cand < dEnd) {
+								stack = push(stack, sp, SCAN, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, cand, offset, pm, pmEnd);
+								sp += FRAME;
+								p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+								continue call;
+							}
+							s = dEnd;
+						}
+						if ((dn = s) >= dEnd) {
+							if (ended != null) ended[0] = true;
+							pndn = pos(pn, dr); break block;
+						}
+						break;
+					}
+					case '+': // retry:
+						if (pOp == pPlus) { // reached same + again
+							pn = p0;        // go back to loop start
+							dr = dn;        // remember successful match position
+						} else if (pOp > p0 && pattern[pPlus0] != '+') {
+							if (maxOps < 0 && isClass(pattern[pPlus0])) { // run of a special set
+								int d = dn;
+								int sEnd = limit(budget, dn, dEnd);
+								dn = BYTES.skipClass(data, dn, sEnd, pattern[pPlus0]);
+								if (budget != null && (dn >= sEnd && sEnd < dEnd || !budget.spend(dn-d)))
+									return exhausted(d);
+								if (ended != null && dn == dEnd) ended[0] = true;
+							} else {
+								stack = push(stack, sp, PLUS, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+								sp += FRAME;
+								p0 = pPlus0; pn = p0; dr = dn; pPlus0 = -1; pPlus = pOp; plussed = true;
+								continue call;
+							}
+						}
+						break;
+					// set:
+					case '{':
+						if (data[dn] < 0 && isUtf8Set(pattern, pn)) { // code point
+							int cp = codePoint(data, dn, dEnd);
+							if (!inSetUtf8(pattern, pn, cp & CODE_POINT)) { // mismatch
+								if (ended != null && dn + 4 > dEnd) ended[0] = true; // might be cut off
+								pndn = pos(pOp, dr); break block;
+							}
+							dn += cp >>> 24;
+						} else if (!inSet(pattern, pn, data[dn++])) { pndn = pos(pOp, dr); break block; } // mismatch
+						pn = plussed && p0 == pOp ? pPlus : skipBeyondSet(pattern, pOp);
+						break;
+					}
+					pPlus0 = pOp; // remember as loop start
+				}
+				if (ended != null && pn < pattern.length && dn >= dEnd) ended[0] = true;
+				pndn = pos(pn, dn);
+			}
+			// return pndn to the caller
+			while (true) {
+				if (sp == 0)
+					return pndn;
+				sp -= FRAME;
+				int kind = stack[sp];
+				p0     = stack[sp+1];
+				pn     = stack[sp+2];
+				dn     = stack[sp+3];
+				dr     = stack[sp+4];
+				pPlus0 = stack[sp+5];
+				pPlus  = stack[sp+6];
+				maxOps = stack[sp+7];
+				int pOp = stack[sp+8];
+				plussed = pPlus >= 0;
+				if (kind == GROUP) {
 					if ((int)pndn < 0) {
-						if (op == '(') // when must occur its a mismatch
-							return plussed ? pos(pOp, dr) : pndn ;
+						if (pattern[pOp] == '(') { // when must occur its a mismatch
+							if (plussed)
+								pndn = pos(pOp, dr);
+							continue; // return
+						}
 						pn = skipBeyondBlock(pattern, pn);
 					} else {
 						pn = (int)(pndn >> 32);
 						dn = (int)pndn;
 					}
-				}
-				break;
-			case '~': // scan
-				if ((dn = scan(pattern, pn, data, dn)) >= data.length) return pos(pn, dr); break;
-			case '+': // retry:
-				if (pOp == pPlus) { // reached same + again
-					pn = p0;        // go back to loop start
-					dr = dn;        // remember successful match position
-				} else if (pOp > p0 && pattern[pPlus0] != '+') {
-					dn = (int)match(pattern, pPlus0, data, dn, pOp, maxOps);
+				} else if (kind == PLUS) {
+					dn = (int)pndn;
 					if (dn < 0)
 						dn = mismatchAt(dn); // reverses a mismatch by applying function again (blocks return positive)
+				} else { // SCAN
+					int cand = stack[sp+9];
+					int offset = stack[sp+10];
+					int pm = stack[sp+11];
+					int pmEnd = stack[sp+12];
+					if ((int)pndn < 0) { // next candidate
+						int c = cand;
+						int sEnd = limit(budget, c, dEnd);
+						if (++cand < sEnd && pmEnd > pm)
+							cand = hop(pattern, pm, pmEnd, data, cand, sEnd);
+						if (budget != null && (cand >= sEnd && sEnd < dEnd || !budget.spend(Math.min(cand, dEnd)-c)))
+							return exhausted(c);
+						if (cand >= dEnd) {
+							if (ended != null) ended[0] = true;
+							pndn = pos(pn, dr);
+							continue; // return
+						}
+						stack[sp+9] = cand;
+						sp += FRAME;
+						p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+						continue call;
+					}
+					dn = cand-offset;
 				}
-				break;
-			// set:
-			case '{':
-				if (!inSet(pattern, pn, data[dn++]))
-					return pos(pOp, dr); // mismatch
-				pn = plussed && p0 == pOp ? pPlus : skipBeyondSet(pattern, pOp);
-				break;
+				pPlus0 = pOp; // remember as loop start
+				continue call;
 			}
-			pPlus0 = pOp; // remember as loop start
 		}
-		return pos(pn, dn);
 	}
 
-	private static boolean inSet(byte[] pattern, int p0, byte chr) {
+	/*
+	 * The frames of the iterative match: kind of call, the state of the caller
+	 * and for a scan the candidate tested and the literal hopped to.
+	 */
+
+	static final int FRAME = 13;
+	static final int GROUP = 0, PLUS = 1, SCAN = 2;
+
+	private static final ThreadLocal<int[]> STACK = ThreadLocal.withInitial(() -> new int[16 * FRAME]);
+
+	static int[] push(int[] stack, int sp, int kind, int p0, int pn, int dn, int dr, int pPlus0, int pPlus,
+			int maxOps, int pOp, int cand, int offset, int pm, int pmEnd) {
+		if (stack == null)
+			stack = STACK.get();
+		if (sp + FRAME > stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+			STACK.set(stack);
+		}
+		stack[sp] = kind;
+		stack[sp+1] = p0;
+		stack[sp+2] = pn;
+		stack[sp+3] = dn;
+		stack[sp+4] = dr;
+		stack[sp+5] = pPlus0;
+		stack[sp+6] = pPlus;
+		stack[sp+7] = maxOps;
+		stack[sp+8] = pOp;
+		stack[sp+9] = cand;
+		stack[sp+10] = offset;
+		stack[sp+11] = pm;
+		stack[sp+12] = pmEnd;
+		return stack;
+	}
+
+	/**
+	 * Finds all matches between from and to. Each attempt starts at the end of
+	 * the previous match. The search ends with the first mismatch or a match
+	 * that is empty.
+	 *
+	 * @return number of matches passed to the sink
+	 */
+	public static int findAll(byte[] pattern, byte[] data, int from, int to, MatchSink sink) {
+		int c = 0;
+		int d0 = from;
+		while (d0 < to) {
+			int dn = (int)match(pattern, 0, data, d0, to, -1, -1);
+			if (dn <= d0)
+				return c;
+			sink.match(d0, dn);
+			c++;
+			d0 = dn;
+		}
+		return c;
+	}
+
+	/**
+	 * Like {@link #findAll(byte[], byte[], int, int, MatchSink)} but stores the
+	 * start and end of the i-th match at index 2i and 2i+1. The search ends when
+	 * the array is full.
+	 *
+	 * @return number of matches stored
+	 */
+	public static int findAll(byte[] pattern, byte[] data, int from, int to, int[] startsEnds) {
+		int c = 0;
+		int d0 = from;
+		while (d0 < to && c+c+1 < startsEnds.length) {
+			int dn = (int)match(pattern, 0, data, d0, to, -1, -1);
+			if (dn <= d0)
+				return c;
+			startsEnds[c+c] = d0;
+			startsEnds[c+c+1] = dn;
+			c++;
+			d0 = dn;
+		}
+		return c;
+	}
+
+	/**
+	 * Like {@link #findAll(byte[], byte[], int, int, MatchSink)} but stores each
+	 * match as (start,end) implemented as long. The search ends when the array is
+	 * full.
+	 *
+	 * @return number of matches stored
+	 */
+	public static int findAll(byte[] pattern, byte[] data, int from, int to, long[] matches) {
+		int c = 0;
+		int d0 = from;
+		while (d0 < to && c < matches.length) {
+			int dn = (int)match(pattern, 0, data, d0, to, -1, -1);
+			if (dn <= d0)
+				return c;
+			matches[c++] = pos(d0, dn);
+			d0 = dn;
+		}
+		return c;
+	}
+
+	/**
+	 * Splits data between from and to into fields separated by delimiters. A
+	 * delimiter is a match of the pattern that consumes bytes and ran to its
+	 * end (see {@link CompiledLex#matches(byte[], int, int)}), like _+ or {,;}.
+	 * Each field ends at the next delimiter, the last one at to. Empty fields
+	 * between two delimiters or after a delimiter at the end are included. The
+	 * start and end of the i-th field are stored at index 2i and 2i+1. The
+	 * split ends when the array is full.
+	 *
+	 * @return number of fields stored, at least 1 (unless the array is empty)
+	 */
+	public static int split(byte[] pattern, byte[] data, int from, int to, int[] startsEnds) {
+		int c = 0;
+		int d0 = from;
+		while (c+c+1 < startsEnds.length) {
+			long delimiter = delimiter(pattern, data, d0, to);
+			int end = (int)(delimiter >> 32);
+			startsEnds[c+c] = d0;
+			startsEnds[c+c+1] = end;
+			c++;
+			if (end >= to)
+				return c;
+			d0 = (int)delimiter;
+		}
+		return c;
+	}
+
+	/**
+	 * @return start and end of the first delimiter (see
+	 *         {@link #split(byte[], byte[], int, int, int[])}) at or after dn as
+	 *         (start,end) implemented as long, (dEnd,dEnd) if there is none
+	 */
+	static long delimiter(byte[] pattern, byte[] data, int dn, int dEnd) {
+		while (dn < dEnd && pattern.length > 0) {
+			int d = scanDirect(pattern, 0, data, dn, dEnd);
+			if (d >= dEnd)
+				break;
+			if (d >= 0)
+				dn = d; // first instruction matches here
+			long pndn = match(pattern, 0, data, dn, dEnd, -1, -1);
+			int end = (int)pndn;
+			if (end > dn && CompiledLex.isEnd(pattern, (int)(pndn >> 32)))
+				return pos(dn, end);
+			dn++;
+		}
+		return pos(dEnd, dEnd);
+	}
+
+	/**
+	 * Searches for a literal byte sequence. Unlike a pattern all bytes are taken
+	 * literally.
+	 *
+	 * @return position of the first occurrence of the literal at or after from,
+	 *         or -1 if there is none
+	 */
+	public static int indexOf(byte[] data, int from, byte[] literal) {
+		int i = new Literal(literal).indexOf(data, from, data.length);
+		return i >= data.length && literal.length > 0 ? -1 : i;
+	}
+
+	static boolean inSet(byte[] pattern, int p0, byte chr) {
 		if (pattern[p0] == '^' && pattern[p0-1] == '{')
 			return !inSet(pattern, p0+1, chr);
 		final int pEnd = pattern.length;
@@ -135,6 +502,7 @@ public final class Lex {
 					if (upper == '\\') { upper = pattern[pn++]; }
 					else if (upper == '@') upper = (byte) (pattern[pn++] ^ '@');
 					if (chr <= upper && chr >= lower) return true;
+					if (upper < 0 && lower >= 0 && chr >= lower) return true; // ASCII up to a code point
 				}
 				break;
 			}
@@ -143,15 +511,130 @@ public final class Lex {
 		return false;
 	}
 
-	private static int scan(byte[] pattern, int p0, byte[] data, int dn) {
-		if (pattern[p0] == '+')
-			return data.length; // mismatch
-		if (pattern[p0] != '(') // basic scan (if no group is used there is no point)
-			return scanLinear(pattern, p0, data, dn);
-		return scanHop(pattern, p0, data, dn);
+	/*
+	 * UTF-8: a set with a member that is not ASCII matches a code point. ASCII
+	 * bytes are tested by inSet, other bytes are decoded and tested as code
+	 * point by inSetUtf8 which also decodes the members of the set.
+	 */
+
+	/**
+	 * Masks the code point of the (length,code point) int returned by
+	 * {@link #codePoint(byte[], int, int)}
+	 */
+	static final int CODE_POINT = 0xFFFFFF;
+	/**
+	 * The code point of a byte that does not start a valid UTF-8 sequence. It
+	 * is only in sets with ? or those of bytes not to match.
+	 */
+	static final int INVALID = 0x110000;
+
+	/**
+	 * @param p0
+	 *            position after the {
+	 * @return true, if the set has a member that is not ASCII
+	 */
+	static boolean isUtf8Set(byte[] pattern, int p0) {
+		final int pEnd = pattern.length;
+		int pn = p0;
+		while (pn < pEnd) {
+			byte op = pattern[pn++];
+			if (op < 0 || op == '\\' && pn < pEnd && pattern[pn] < 0)
+				return true;
+			if (op == '@' || op == '\\') {
+				pn++;
+			} else if (op == '}')
+				return false;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the length of the UTF-8 sequence at dn (1-4) and its code point
+	 *         as (length << 24 | code point)
+	 */
+	static int codePoint(byte[] data, int dn, int dEnd) {
+		int b0 = data[dn] & 0xFF;
+		if (b0 < 0x80)
+			return 1 << 24 | b0;
+		int len = b0 >= 0xF8 ? 0 : b0 >= 0xF0 ? 4 : b0 >= 0xE0 ? 3 : b0 >= 0xC0 ? 2 : 0;
+		if (len == 0 || dn + len > dEnd)
+			return 1 << 24 | INVALID;
+		int cp = b0 & 0x7F >> len;
+		for (int i = 1; i < len; i++) {
+			byte b = data[dn+i];
+			if ((b & 0xC0) != 0x80)
+				return 1 << 24 | INVALID;
+			cp = cp << 6 | b & 0x3F;
+		}
+		return len << 24 | cp;
 	}
 
-	private static int scanHop(byte[] pattern, int p0, byte[] data, int dn) {
+	/**
+	 * Same as {@link #inSet(byte[], int, byte)} for a code point.
+	 */
+	static boolean inSetUtf8(byte[] pattern, int p0, int cp) {
+		if (pattern[p0] == '^' && pattern[p0-1] == '{')
+			return !inSetUtf8(pattern, p0+1, cp);
+		final int pEnd = pattern.length;
+		int pn = p0;
+		int lower = -1; // member before, lower bound of a range
+		while (pn < pEnd) {
+			byte op = pattern[pn];
+			if (op == '}')
+				return false;
+			if (op == '?') {
+				if (cp >= 0x80) return true;
+				lower = -1;
+				pn++;
+			} else if (op == '-' && lower >= 0 && pn + 1 < pEnd && pattern[pn+1] != '}') {
+				int upper = member(pattern, pn+1, pEnd);
+				if (cp >= lower && cp <= (upper & CODE_POINT)) return true;
+				lower = upper & CODE_POINT;
+				pn += 1 + (upper >>> 24);
+			} else {
+				int member = member(pattern, pn, pEnd);
+				if ((member & CODE_POINT) == cp) return true;
+				lower = member & CODE_POINT;
+				pn += member >>> 24;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return length and code point of the set member at pn like
+	 *         {@link #codePoint(byte[], int, int)}
+	 */
+	private static int member(byte[] pattern, int pn, int pEnd) {
+		byte op = pattern[pn];
+		if (op == '\\' && pn + 1 < pEnd)
+			return codePoint(pattern, pn+1, pEnd) + (1 << 24);
+		if (op == '@' && pn + 1 < pEnd)
+			return 2 << 24 | (pattern[pn+1] ^ '@') & 0xFF;
+		return codePoint(pattern, pn, pEnd);
+	}
+
+	/**
+	 * @return end of a scan that does not need to test candidates by matching,
+	 *         -1 otherwise
+	 */
+	private static int scanDirect(byte[] pattern, int p0, byte[] data, int dn, int dEnd) {
+		byte chr = pattern[p0];
+		if (chr == '+')
+			return dEnd; // mismatch
+		if (isClass(chr))
+			return BYTES.indexOfClass(data, dn, dEnd, chr);
+		if (!isOp(chr))
+			return skipToNext(chr, data, dn, dEnd);
+		return -1;
+	}
+
+	/**
+	 * @return the position of the literal following the instructions of known
+	 *         length at the start of the group and the number of bytes these
+	 *         instructions consume as (pm,offset)
+	 */
+	static long hopSite(byte[] pattern, int p0) {
 		int pm = p0;
 		int offset = 0; //
 		boolean done = false;
@@ -165,39 +648,21 @@ public final class Lex {
 			case '_' :
 			case '^' :
 			case '@' : break;
-			case '{' : pm = skipBeyondSet(pattern, pm); break;
-			case '\\': pm++; break;
+			case '{' :
+				if (!isUtf8Set(pattern, pm)) { pm = skipBeyondSet(pattern, pm); break; }
+				//$FALL-THROUGH$ (code points vary in length)
 			default  : pm--; done = true; //$FALL-THROUGH$
 			case '(' : offset--; // does not consume input
 			}
 		}
-		int pmEnd = pm;
-		while (pmEnd < pattern.length && isMaskable(pattern[pmEnd])) pmEnd++;
-		int len = pmEnd-pm;
-		if (len == 0) // bad luck: no maskable sequence at group start
-			return scanLinear(pattern, p0, data, dn);
-		long mask = len == 1 ? 0L : mask(pattern, pm, pmEnd); // make literal mask
-		do {
-			dn = hop(pattern, pm, data, dn, mask, len);
-		} while ((int)match(pattern, p0, data, dn-offset, -1, 1) < 0 && ++dn < data.length);
-		return dn-offset;
-	}
-
-	private static int scanLinear(byte[] pattern, int p0, byte[] data, int dn) {
-		byte chr = pattern[p0];
-		if (isOp(chr)) { // slow: pattern
-			while ((int)match(pattern, p0, data, dn, -1, 1) < 0 && ++dn < data.length);
-		} else
-			dn = skipToNext(chr, data, dn);
-		return dn;
+		return pos(pm, offset);
 	}
 
-	private static int skipToNext(byte chr, byte[] data, int dn) {
-		while (dn < data.length && data[dn] != chr) dn++;
-		return dn;
+	static int skipToNext(byte chr, byte[] data, int dn, int dEnd) {
+		return BYTES.indexOf(data, dn, dEnd, chr);
 	}
 
-	private static int skipBeyondSet(byte[] pattern, int pn) {
+	static int skipBeyondSet(byte[] pattern, int pn) {
 		final int pEnd = pattern.length;
 		while (pn < pEnd) {
 			byte op = pattern[pn++];
@@ -209,7 +674,7 @@ public final class Lex {
 		return pn;
 	}
 
-	private static int skipBeyondBlock(byte[] pattern, int pn) {
+	static int skipBeyondBlock(byte[] pattern, int pn) {
 		final int pEnd = pattern.length;
 		int level = 1;
 		while (level > 0 && pn < pEnd) {
@@ -229,7 +694,7 @@ public final class Lex {
 		return pn;
 	}
 
-	private static long pos(int pn, int dn) {
+	static long pos(int pn, int dn) {
 		return (long)pn << 32 | dn & 0xFFFFFFFFL;
 	}
 
@@ -237,11 +702,11 @@ public final class Lex {
 		return -dn-1;
 	}
 
-	private static boolean isWS(byte chr) {
+	static boolean isWS(byte chr) {
 		return chr == ' ' || chr == '\t' || isNL(chr);
 	}
 
-	private static boolean isNL(byte chr) {
+	static boolean isNL(byte chr) {
 		return chr == '\n' || chr == '\r';
 	}
 
@@ -250,34 +715,74 @@ public final class Lex {
 	 * literal sequence.
 	 *
 	 * The idea is this: if ~ is followed group with a literal sequence we can hop
-	 * forward checking every n-th byte to see if it is one of the bytes in the
-	 * literal sequence identified. This check is done by building a bitmask. For
-	 * the bitmask we use a long and map 32-95 to 0-63. ASCIIs from 96 to 127 are
-	 * mapped to their lower case variant 64-95.
+	 * forward to positions where the first and the last byte of the literal
+	 * occur at the right distance and only compare the bytes in between there.
+	 * Finding such candidates is done by the ByteSearch which can test many
+	 * positions at once.
 	 */
 
-	private static int hop(byte[] pattern, int p0, byte[] data, int d0, long mask, int len) {
-		int dn = d0;
-		final byte first = pattern[p0];
+	/**
+	 * @return end of the sequence of literal bytes (including escaped ones)
+	 *         starting at pm
+	 */
+	static int literalEnd(byte[] pattern, int pm) {
+		while (pm < pattern.length) {
+			byte b = pattern[pm];
+			if (b == '\\' && pm+1 < pattern.length) {
+				pm += 2;
+			} else if (!isOp(b)) {
+				pm++;
+			} else
+				return pm;
+		}
+		return pm;
+	}
+
+	/**
+	 * @return the literal bytes in pattern[pm..pmEnd) with escapes resolved
+	 */
+	static byte[] literal(byte[] pattern, int pm, int pmEnd) {
+		byte[] literal = new byte[literalLength(pattern, pm, pmEnd)];
+		for (int i = 0; pm < pmEnd; i++) {
+			if (pattern[pm] == '\\') pm++;
+			literal[i] = pattern[pm++];
+		}
+		return literal;
+	}
+
+	private static int literalLength(byte[] pattern, int pm, int pmEnd) {
+		int len = 0;
+		for (; pm < pmEnd; pm++, len++)
+			if (pattern[pm] == '\\') pm++;
+		return len;
+	}
+
+	/**
+	 * @return position of the literal in pattern[pm..pmEnd) in data or dEnd.
+	 *         Only a literal that is complete before dEnd is found, a scan
+	 *         therefore does not stop at a literal cut off by the end of data
+	 *         and mismatches.
+	 */
+	static int hop(byte[] pattern, int pm, int pmEnd, byte[] data, int d0, int dEnd) {
+		final byte first = pattern[pattern[pm] == '\\' ? pm+1 : pm];
+		final int len = literalLength(pattern, pm, pmEnd);
 		if (len == 1)
-			return skipToNext(first, data, dn);
-		do {
-			while (dn < data.length && (mask(data[dn]) & mask) == 0)
-				dn+= len;
-			if (dn < data.length) {
-				int c = len;
-				int dx = dn;
-				while (c-- > 0 && dx > d0 && data[dx] != first) dx--;
-				if (data[dx] == first) {
-					c = 0;
-					while (c < len && dx < data.length && data[dx++] == pattern[p0+c]) c++;
-					if (c >= len)
-						return dx-len;
-				}
-				dn++;
+			return skipToNext(first, data, d0, dEnd);
+		final byte last = pattern[pmEnd-1];
+		final int dLast = dEnd-len+1; // last position the literal can start at
+		int dn = d0;
+		while ((dn = BYTES.indexOf(data, dn, dLast, first, last, len-1)) < dLast) {
+			int pc = pm;
+			int dx = dn;
+			while (pc < pmEnd) {
+				if (pattern[pc] == '\\') pc++;
+				if (pattern[pc++] != data[dx++]) break;
+				if (pc >= pmEnd)
+					return dn;
 			}
-		} while (dn < data.length);
-		return dn;
+			dn++;
+		}
+		return dEnd;
 	}
 
 	static final String ops = "()[]{}#$+@^_\\?`~";
@@ -287,7 +792,7 @@ public final class Lex {
 		return b >= 32 && (mask(b) & OPS_MASK) == 0L;
 	}
 
-	private static long mask(byte[] pattern, int s, int e) {
+	static long mask(byte[] pattern, int s, int e) {
 		long mask = 0L;
 		for (int i = s; i < e; i++)
 			mask |= mask(pattern[i]);
@@ -298,6 +803,479 @@ public final class Lex {
 		return 1L << (b >= '`' ? (b & 0xDF)-32 : b-32);
 	}
 
+	/*
+	 * ByteBuffer: same algorithm reading the buffer in place (for direct buffers)
+	 */
+
+	/**
+	 * Matches the pattern against the bytes between the buffer's position and
+	 * limit. The buffer's position is not changed. Returned data positions are
+	 * absolute indexes into the buffer.
+	 */
+	public static long match(byte[] pattern, int p0, ByteBuffer data) {
+		return match(pattern, p0, data, data.position());
+	}
+
+	public static long match(byte[] pattern, int p0, ByteBuffer data, int d0) {
+		if (data.hasArray()) { // heap buffer: match the backing array
+			int offset = data.arrayOffset();
+			long pndn = match(pattern, p0, data.array(), d0+offset, data.limit()+offset, -1, -1);
+			int dn = (int)pndn;
+			return pos((int)(pndn >> 32), dn < 0 ? mismatchAt(mismatchAt(dn)-offset) : dn-offset);
+		}
+		return match(pattern, p0, data, d0, data.limit(), -1, -1);
+	}
+
+	/**
+	 * @see #match(byte[], int, byte[], int, int, int, int)
+	 */
+	public static long match(byte[] pattern, int p0, ByteBuffer data, int d0, int dEnd, int pPlus, int maxOps) {
+		int pn = p0;
+		int dn = d0;
+		int dr = d0;
+		int pPlus0 = -1; // position from where to retry (last op in loop on this level)
+		boolean plussed = pPlus >= 0;
+		int[] stack = null; // frames of the callers, taken from STACK on first call
+		int sp = 0;
+		long pndn;
+		call: while (true) {
+			block: {
+				while (pn < pattern.length && dn < dEnd && maxOps-- != 0) {
+					if (!plussed)
+						dr = mismatchAt(dn);
+					int pOp = pn;
+					byte op  = pattern[pn++];
+					switch (op) {
+					// literals:
+					case '\\':if (pattern[pn++] != data.get(dn++)) { pndn = pos(pOp, dr); break block; } break;
+					default : if (op != data.get(dn++))  { pndn = pos(pOp, dr); break block; } break;
+					// special sets...
+					case '?': dn++; break;
+					case '^': if (isWS(data.get(dn++)))  { pndn = pos(pOp, dr); break block; } break;
+					case '_': if (!isWS(data.get(dn++))) { pndn = pos(pOp, dr); break block; } break;
+					case '$': if (!isNL(data.get(dn++))) { pndn = pos(pOp, dr); break block; } break;
+					          // range test use: (unsigned)(number-lower) <= (upper-lower)
+					case '@': if ((0xFFFF & (data.get(dn++) & 0xDF) - 'A') >= 26) { pndn = pos(pOp, dr); break block; } break;
+					case '#': if ((0xFFFF & (data.get(dn++)) - '0') >= 10) { pndn = pos(pOp, dr); break block; } break;
+					// groups:
+					case '}':
+					case ')':
+					case ']': if (pn != pPlus) { pndn = pos(pn, dn); break block; } break; // SKIP before the + right after
+					case '`': if (pOp > p0)    { pndn = pos(pn, dn); break block; } break; // NOOP on first in block
+					case '(': // group must occur
+					case '[': // group can occur
+						if (!plussed || p0 != pOp) {
+							stack = push(stack, sp, GROUP, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pn; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = -1;
+							continue call;
+						}
+						break;
+					case '~': { // scan
+						int s = scanDirect(pattern, pn, data, dn, dEnd);
+						if (s < 0) { // candidates have to be tested by matching from pn
+							long pmOffset = pattern[pn] == '(' ? hopSite(pattern, pn) : pos(pn, 0);
+							int pm = (int)(pmOffset >> 32);
+							int pmEnd = pattern[pn] == '(' ? literalEnd(pattern, pm) : pm;
+							int offset = pmEnd == pm ? 0 : (int)pmOffset;
+							int cand = pmEnd == pm ? dn : hop(pattern, pm, pmEnd, data, dn + offset, dEnd);
+							if (cand < dEnd) {
+								stack = push(stack, sp, SCAN, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, cand, offset, pm, pmEnd);
+								sp += FRAME;
+								p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+								continue call;
+							}
+							s = dEnd;
+						}
+						if ((dn = s) >= dEnd) { pndn = pos(pn, dr); break block; }
+						break;
+					}
+					case '+': // retry:
+						if (pOp == pPlus) { // reached same + again
+							pn = p0;        // go back to loop start
+							dr = dn;        // remember successful match position
+						} else if (pOp > p0 && pattern[pPlus0] != '+') {
+							stack = push(stack, sp, PLUS, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pPlus0; pn = p0; dr = dn; pPlus0 = -1; pPlus = pOp; plussed = true;
+							continue call;
+						}
+						break;
+					// set:
+					case '{':
+						if (data.get(dn) < 0 && isUtf8Set(pattern, pn)) { // code point
+							int cp = codePoint(data, dn, dEnd);
+							if (!inSetUtf8(pattern, pn, cp & CODE_POINT)) { pndn = pos(pOp, dr); break block; } // mismatch
+							dn += cp >>> 24;
+						} else if (!inSet(pattern, pn, data.get(dn++))) { pndn = pos(pOp, dr); break block; } // mismatch
+						pn = plussed && p0 == pOp ? pPlus : skipBeyondSet(pattern, pOp);
+						break;
+					}
+					pPlus0 = pOp; // remember as loop start
+				}
+				pndn = pos(pn, dn);
+			}
+			// return pndn to the caller
+			while (true) {
+				if (sp == 0)
+					return pndn;
+				sp -= FRAME;
+				int kind = stack[sp];
+				p0     = stack[sp+1];
+				pn     = stack[sp+2];
+				dn     = stack[sp+3];
+				dr     = stack[sp+4];
+				pPlus0 = stack[sp+5];
+				pPlus  = stack[sp+6];
+				maxOps = stack[sp+7];
+				int pOp = stack[sp+8];
+				plussed = pPlus >= 0;
+				if (kind == GROUP) {
+					if ((int)pndn < 0) {
+						if (pattern[pOp] == '(') { // when must occur its a mismatch
+							if (plussed)
+								pndn = pos(pOp, dr);
+							continue; // return
+						}
+						pn = skipBeyondBlock(pattern, pn);
+					} else {
+						pn = (int)(pndn >> 32);
+						dn = (int)pndn;
+					}
+				} else if (kind == PLUS) {
+					dn = (int)pndn;
+					if (dn < 0)
+						dn = mismatchAt(dn); // reverses a mismatch by applying function again (blocks return positive)
+				} else { // SCAN
+					int cand = stack[sp+9];
+					int offset = stack[sp+10];
+					int pm = stack[sp+11];
+					int pmEnd = stack[sp+12];
+					if ((int)pndn < 0) { // next candidate
+						if (++cand < dEnd && pmEnd > pm)
+							cand = hop(pattern, pm, pmEnd, data, cand, dEnd);
+						if (cand >= dEnd) {
+							pndn = pos(pn, dr);
+							continue; // return
+						}
+						stack[sp+9] = cand;
+						sp += FRAME;
+						p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+						continue call;
+					}
+					dn = cand-offset;
+				}
+				pPlus0 = pOp; // remember as loop start
+				continue call;
+			}
+		}
+	}
+
+	private static int scanDirect(byte[] pattern, int p0, ByteBuffer data, int dn, int dEnd) {
+		byte chr = pattern[p0];
+		if (chr == '+')
+			return dEnd; // mismatch
+		if (!isOp(chr))
+			return skipToNext(chr, data, dn, dEnd);
+		return -1;
+	}
+
+	private static int codePoint(ByteBuffer data, int dn, int dEnd) {
+		int b0 = data.get(dn) & 0xFF;
+		int len = b0 >= 0xF8 ? 0 : b0 >= 0xF0 ? 4 : b0 >= 0xE0 ? 3 : b0 >= 0xC0 ? 2 : 0;
+		if (len == 0 || dn + len > dEnd)
+			return 1 << 24 | INVALID;
+		int cp = b0 & 0x7F >> len;
+		for (int i = 1; i < len; i++) {
+			byte b = data.get(dn+i);
+			if ((b & 0xC0) != 0x80)
+				return 1 << 24 | INVALID;
+			cp = cp << 6 | b & 0x3F;
+		}
+		return len << 24 | cp;
+	}
+
+	private static int skipToNext(byte chr, ByteBuffer data, int dn, int dEnd) {
+		while (dn < dEnd && data.get(dn) != chr) dn++;
+		return dn;
+	}
+
+	private static int hop(byte[] pattern, int pm, int pmEnd, ByteBuffer data, int d0, int dEnd) {
+		final byte first = pattern[pattern[pm] == '\\' ? pm+1 : pm];
+		final int len = literalLength(pattern, pm, pmEnd);
+		if (len == 1)
+			return skipToNext(first, data, d0, dEnd);
+		final byte last = pattern[pmEnd-1];
+		final int dLast = dEnd-len+1;
+		for (int dn = d0; dn < dLast; dn++) {
+			if (data.get(dn) == first && data.get(dn+len-1) == last) {
+				int pc = pm;
+				int dx = dn;
+				while (pc < pmEnd) {
+					if (pattern[pc] == '\\') pc++;
+					if (pattern[pc++] != data.get(dx++)) break;
+					if (pc >= pmEnd)
+						return dn;
+				}
+			}
+		}
+		return dEnd;
+	}
+
+	/*
+	 * CharSequence: same algorithm over chars (for Strings without encoding)
+	 *
+	 * A char below 128 is the ASCII byte. Any other char is one non ASCII byte
+	 * to byte instructions. It is a code point to a literal that is not ASCII
+	 * and to a set of code points, these consume both chars of a surrogate pair.
+	 */
+
+	public static long match(byte[] pattern, int p0, CharSequence data, int d0) {
+		return match(pattern, p0, data, null, d0, data.length(), -1, -1);
+	}
+
+	public static long match(byte[] pattern, int p0, char[] data, int d0) {
+		return match(pattern, p0, null, data, d0, data.length, -1, -1);
+	}
+
+	public static long match(byte[] pattern, int p0, char[] data, int d0, int dEnd) {
+		return match(pattern, p0, null, data, d0, dEnd, -1, -1);
+	}
+
+	/**
+	 * @see #match(byte[], int, byte[], int, int, int, int)
+	 */
+	public static long match(byte[] pattern, int p0, CharSequence data, int d0, int dEnd, int pPlus, int maxOps) {
+		return match(pattern, p0, data, null, d0, dEnd, pPlus, maxOps);
+	}
+
+	/**
+	 * The chars are those of the sequence or, if that is null, of the array.
+	 */
+	private static long match(byte[] pattern, int p0, CharSequence seq, char[] arr, int d0, int dEnd, int pPlus, int maxOps) {
+		int pn = p0;
+		int dn = d0;
+		int dr = d0;
+		int pPlus0 = -1; // position from where to retry (last op in loop on this level)
+		boolean plussed = pPlus >= 0;
+		int[] stack = null; // frames of the callers, taken from STACK on first call
+		int sp = 0;
+		long pndn;
+		call: while (true) {
+			block: {
+				while (pn < pattern.length && dn < dEnd && maxOps-- != 0) {
+					if (!plussed)
+						dr = mismatchAt(dn);
+					int pOp = pn;
+					byte op  = pattern[pn++];
+					switch (op) {
+					// literals:
+					case '\\':if ((pndn = literal(pattern, pn, seq, arr, dn, dEnd)) < 0) { pndn = pos(pOp, dr); break block; }
+					          pn = (int)(pndn >> 32); dn = (int)pndn; break;
+					default : if (op >= 0) { if (op != charAt(seq, arr, dn++)) { pndn = pos(pOp, dr); break block; } break; }
+					          if ((pndn = literal(pattern, pOp, seq, arr, dn, dEnd)) < 0) { pndn = pos(pOp, dr); break block; } // code point
+					          pn = (int)(pndn >> 32); dn = (int)pndn; break;
+					// special sets...
+					case '?': dn++; break;
+					case '^': if (isWS(byteAt(seq, arr, dn++)))  { pndn = pos(pOp, dr); break block; } break;
+					case '_': if (!isWS(byteAt(seq, arr, dn++))) { pndn = pos(pOp, dr); break block; } break;
+					case '$': if (!isNL(byteAt(seq, arr, dn++))) { pndn = pos(pOp, dr); break block; } break;
+					          // range test use: (unsigned)(number-lower) <= (upper-lower)
+					case '@': if ((0xFFFF & (byteAt(seq, arr, dn++) & 0xDF) - 'A') >= 26) { pndn = pos(pOp, dr); break block; } break;
+					case '#': if ((0xFFFF & (byteAt(seq, arr, dn++)) - '0') >= 10) { pndn = pos(pOp, dr); break block; } break;
+					// groups:
+					case '}':
+					case ')':
+					case ']': if (pn != pPlus) { pndn = pos(pn, dn); break block; } break; // SKIP before the + right after
+					case '`': if (pOp > p0)    { pndn = pos(pn, dn); break block; } break; // NOOP on first in block
+					case '(': // group must occur
+					case '[': // group can occur
+						if (!plussed || p0 != pOp) {
+							stack = push(stack, sp, GROUP, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pn; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = -1;
+							continue call;
+						}
+						break;
+					case '~': { // scan
+						int s = scanDirect(pattern, pn, seq, arr, dn, dEnd);
+						if (s < 0) { // candidates have to be tested by matching from pn
+							long pmOffset = pattern[pn] == '(' ? hopSite(pattern, pn) : pos(pn, 0);
+							int pm = (int)(pmOffset >> 32);
+							int pmEnd = pattern[pn] == '(' ? literalEnd(pattern, pm) : pm;
+							for (int p = pm; p < pmEnd; p++)
+								if (pattern[p] < 0) // chars of a code point are not bytes of the literal
+									pmEnd = pm;
+							int offset = pmEnd == pm ? 0 : (int)pmOffset;
+							int cand = pmEnd == pm ? dn : hop(pattern, pm, pmEnd, seq, arr, dn + offset, dEnd);
+							if (cand < dEnd) {
+								stack = push(stack, sp, SCAN, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, cand, offset, pm, pmEnd);
+								sp += FRAME;
+								p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+								continue call;
+							}
+							s = dEnd;
+						}
+						if ((dn = s) >= dEnd) { pndn = pos(pn, dr); break block; }
+						break;
+					}
+					case '+': // retry:
+						if (pOp == pPlus) { // reached same + again
+							pn = p0;        // go back to loop start
+							dr = dn;        // remember successful match position
+						} else if (pOp > p0 && pattern[pPlus0] != '+') {
+							stack = push(stack, sp, PLUS, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pPlus0; pn = p0; dr = dn; pPlus0 = -1; pPlus = pOp; plussed = true;
+							continue call;
+						}
+						break;
+					// set:
+					case '{':
+						if (charAt(seq, arr, dn) >= 0x80 && isUtf8Set(pattern, pn)) { // code point
+							int cp = codePointAt(seq, arr, dn, dEnd);
+							if (!inSetUtf8(pattern, pn, cp)) { pndn = pos(pOp, dr); break block; } // mismatch
+							dn += Character.charCount(cp);
+						} else if (!inSet(pattern, pn, byteAt(seq, arr, dn++))) { pndn = pos(pOp, dr); break block; } // mismatch
+						pn = plussed && p0 == pOp ? pPlus : skipBeyondSet(pattern, pOp);
+						break;
+					}
+					pPlus0 = pOp; // remember as loop start
+				}
+				pndn = pos(pn, dn);
+			}
+			// return pndn to the caller
+			while (true) {
+				if (sp == 0)
+					return pndn;
+				sp -= FRAME;
+				int kind = stack[sp];
+				p0     = stack[sp+1];
+				pn     = stack[sp+2];
+				dn     = stack[sp+3];
+				dr     = stack[sp+4];
+				pPlus0 = stack[sp+5];
+				pPlus  = stack[sp+6];
+				maxOps = stack[sp+7];
+				int pOp = stack[sp+8];
+				plussed = pPlus >= 0;
+				if (kind == GROUP) {
+					if ((int)pndn < 0) {
+						if (pattern[pOp] == '(') { // when must occur its a mismatch
+							if (plussed)
+								pndn = pos(pOp, dr);
+							continue; // return
+						}
+						pn = skipBeyondBlock(pattern, pn);
+					} else {
+						pn = (int)(pndn >> 32);
+						dn = (int)pndn;
+					}
+				} else if (kind == PLUS) {
+					dn = (int)pndn;
+					if (dn < 0)
+						dn = mismatchAt(dn); // reverses a mismatch by applying function again (blocks return positive)
+				} else { // SCAN
+					int cand = stack[sp+9];
+					int offset = stack[sp+10];
+					int pm = stack[sp+11];
+					int pmEnd = stack[sp+12];
+					if ((int)pndn < 0) { // next candidate
+						if (++cand < dEnd && pmEnd > pm)
+							cand = hop(pattern, pm, pmEnd, seq, arr, cand, dEnd);
+						if (cand >= dEnd) {
+							pndn = pos(pn, dr);
+							continue; // return
+						}
+						stack[sp+9] = cand;
+						sp += FRAME;
+						p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+						continue call;
+					}
+					dn = cand-offset;
+				}
+				pPlus0 = pOp; // remember as loop start
+				continue call;
+			}
+		}
+	}
+
+	/**
+	 * @return (pn,dn) after the literal byte or code point at pn if it occurs
+	 *         at dn, -1 otherwise
+	 */
+	private static long literal(byte[] pattern, int pn, CharSequence seq, char[] arr, int dn, int dEnd) {
+		byte op = pattern[pn];
+		if (op >= 0)
+			return op == charAt(seq, arr, dn) ? pos(pn+1, dn+1) : -1L;
+		int cp = codePoint(pattern, pn, pattern.length);
+		if ((cp & CODE_POINT) != codePointAt(seq, arr, dn, dEnd))
+			return -1L;
+		return pos(pn + (cp >>> 24), dn + Character.charCount(cp & CODE_POINT));
+	}
+
+	/**
+	 * @return the ASCII byte or a non ASCII byte for any other char
+	 */
+	private static byte byteAt(CharSequence seq, char[] arr, int dn) {
+		char c = charAt(seq, arr, dn);
+		return c < 0x80 ? (byte) c : (byte) 0x80;
+	}
+
+	private static char charAt(CharSequence seq, char[] arr, int dn) {
+		return seq == null ? arr[dn] : seq.charAt(dn);
+	}
+
+	/**
+	 * @return the code point at dn, a high surrogate not followed by a low
+	 *         surrogate before dEnd is a code point of its own
+	 */
+	private static int codePointAt(CharSequence seq, char[] arr, int dn, int dEnd) {
+		char hi = charAt(seq, arr, dn);
+		if (Character.isHighSurrogate(hi) && dn + 1 < dEnd) {
+			char lo = charAt(seq, arr, dn + 1);
+			if (Character.isLowSurrogate(lo))
+				return Character.toCodePoint(hi, lo);
+		}
+		return hi;
+	}
+
+	private static int scanDirect(byte[] pattern, int p0, CharSequence seq, char[] arr, int dn, int dEnd) {
+		byte chr = pattern[p0];
+		if (chr == '+')
+			return dEnd;
+		if (!isOp(chr) && chr >= 0)
+			return skipToNext(chr, seq, arr, dn, dEnd);
+		return -1;
+	}
+
+	private static int skipToNext(byte chr, CharSequence seq, char[] arr, int dn, int dEnd) {
+		while (dn < dEnd && charAt(seq, arr, dn) != chr) dn++;
+		return dn;
+	}
+
+	private static int hop(byte[] pattern, int pm, int pmEnd, CharSequence seq, char[] arr, int d0, int dEnd) {
+		final byte first = pattern[pattern[pm] == '\\' ? pm+1 : pm];
+		final int len = literalLength(pattern, pm, pmEnd);
+		if (len == 1)
+			return skipToNext(first, seq, arr, d0, dEnd);
+		final byte last = pattern[pmEnd-1];
+		final int dLast = dEnd-len+1;
+		for (int dn = d0; dn < dLast; dn++) {
+			if (charAt(seq, arr, dn) == first && charAt(seq, arr, dn+len-1) == last) {
+				int pc = pm;
+				int dx = dn;
+				while (pc < pmEnd) {
+					if (pattern[pc] == '\\') pc++;
+					if (pattern[pc++] != charAt(seq, arr, dx++)) break;
+					if (pc >= pmEnd)
+						return dn;
+				}
+			}
+		}
+		return dEnd;
+	}
+
 	/*
 	 * Escaping
 	 */
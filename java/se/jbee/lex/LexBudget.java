@@ -0,0 +1,79 @@
+package se.jbee.lex;
+
+/**
+ * Limits the work done by {@link Lex#match(byte[], int, byte[], int, int, LexBudget)}.
+ *
+ * The budget is shared by all instructions evaluated, including those in
+ * groups, repetitions and the candidates tested by scans. Bytes passed by a
+ * scan or a repeated set count as one operation each. A budget can be used
+ * for several matches (e.g. to limit the work done for a request) and ends
+ * when it runs out of operations, its deadline has passed or it was
+ * cancelled. Deadline and cancellation are checked every
+ * {@value #CHECK_EVERY} operations.
+ *
+ * Budgets are not thread-safe except for {@link #cancel()}.
+ */
+public final class LexBudget {
+
+	static final int CHECK_EVERY = 1024;
+
+	private long ops;
+	private final long deadline;
+	private final boolean hasDeadline;
+	private volatile boolean cancelled;
+	private int untilCheck = CHECK_EVERY;
+
+	/**
+	 * @param maxOps
+	 *            maximal number of operations
+	 */
+	public LexBudget(long maxOps) {
+		this.ops = maxOps;
+		this.deadline = 0L;
+		this.hasDeadline = false;
+	}
+
+	/**
+	 * @param maxOps
+	 *            maximal number of operations
+	 * @param timeoutNanos
+	 *            time from now after which the budget is exhausted
+	 */
+	public LexBudget(long maxOps, long timeoutNanos) {
+		this.ops = maxOps;
+		this.deadline = System.nanoTime() + timeoutNanos;
+		this.hasDeadline = true;
+	}
+
+	/**
+	 * Exhausts the budget. Can be called from any thread. Matches using the
+	 * budget notice within {@value #CHECK_EVERY} operations.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public long remaining() {
+		return Math.max(0L, ops);
+	}
+
+	public boolean isExhausted() {
+		return ops < 0 || cancelled || hasDeadline && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * @return false, if the budget is exhausted
+	 */
+	boolean spend(int n) {
+		if ((ops -= n) < 0)
+			return false;
+		if ((untilCheck -= n) > 0)
+			return true;
+		untilCheck = CHECK_EVERY;
+		if (cancelled || hasDeadline && System.nanoTime() - deadline >= 0) {
+			ops = -1L;
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,136 @@
+package se.jbee.lex;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the {@link CompiledLex} of patterns that are used again and again.
+ *
+ * A lookup of a cached pattern does not lock, it only marks the pattern as
+ * used. When a pattern is missing it is compiled once, threads asking for it at
+ * the same time wait for that. When more than the maximum number of patterns
+ * are cached the one used least recently is evicted.
+ *
+ * The clock marking use only advances with each miss, past the mark of the
+ * pattern compiled. A hit reads it and writes it to the entry when the entry's
+ * mark is older so that hits on the same patterns do not contend. Patterns
+ * used between the same two misses count as used at the same time.
+ *
+ * Instances are thread-safe.
+ */
+public final class LexCache {
+
+	private static final class Key {
+
+		final byte[] pattern;
+		final int hash;
+
+		Key(byte[] pattern, int hash) {
+			this.pattern = pattern;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(pattern, ((Key) obj).pattern);
+		}
+	}
+
+	private static final class Entry {
+
+		final CompiledLex lex;
+		volatile long used;
+
+		Entry(CompiledLex lex, long used) {
+			this.lex = lex;
+			this.used = used;
+		}
+	}
+
+	private final int maxSize;
+	private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSize
+	 *            maximal number of patterns kept
+	 */
+	public LexCache(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be at least 1 but was: "+maxSize);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the compiled pattern, from the cache if it was compiled before
+	 */
+	public CompiledLex compile(byte[] pattern) {
+		int hash = Arrays.hashCode(pattern);
+		Entry e = entries.get(new Key(pattern, hash));
+		if (e != null) {
+			long now = clock.get();
+			if (e.used != now) // only write when stale
+				e.used = now;
+			hits.increment();
+			return e.lex;
+		}
+		Entry[] created = new Entry[1];
+		e = entries.computeIfAbsent(new Key(pattern.clone(), hash),
+				key -> created[0] = new Entry(Lex.compile(key.pattern), clock.getAndAdd(2) + 1));
+		if (e != created[0]) { // compiled by another thread meanwhile
+			hits.increment();
+			return e.lex;
+		}
+		misses.increment();
+		if (entries.size() > maxSize)
+			evict();
+		return e.lex;
+	}
+
+	/**
+	 * Removes the least recently used patterns until the cache is within its
+	 * size. This goes through all entries but it only happens on a miss which
+	 * compiles anyway.
+	 */
+	private synchronized void evict() {
+		while (entries.size() > maxSize) {
+			Map.Entry<Key, Entry> oldest = null;
+			for (Map.Entry<Key, Entry> e : entries.entrySet())
+				if (oldest == null || e.getValue().used < oldest.getValue().used)
+					oldest = e;
+			if (oldest != null && entries.remove(oldest.getKey(), oldest.getValue()))
+				evictions.increment();
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+}
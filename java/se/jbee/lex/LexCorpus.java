@@ -0,0 +1,132 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Random;
+
+/**
+ * Generates data to benchmark with. The same arguments always give the same
+ * bytes so results of different versions can be compared without shipping or
+ * downloading documents.
+ *
+ * The data is a sequence of records of the kind (lines, elements, rows or
+ * sentences). Hits are records containing what the patterns of the kind look
+ * for (see {@link #pattern(Kind, String)}). The hit density is the share of
+ * records that are hits.
+ */
+final class LexCorpus {
+
+	enum Kind { LOG, HTML, CSV, UTF8 }
+
+	private static final String[] WORDS = { "request", "served", "cache", "lookup", "user", "session", "token",
+			"upstream", "timeout", "retry", "config", "worker", "queue", "batch", "index" };
+	private static final String[] UTF8_WORDS = { "Grüße", "aus", "Straße", "naïve", "façade", "東京", "都市",
+			"Ελλάδα", "мир", "😀", "smörgåsbord", "Zürich", "Ångström" };
+
+	/**
+	 * @param size
+	 *            number of bytes, like 1K, 64M or 1G
+	 */
+	static int size(String size) {
+		char unit = size.charAt(size.length()-1);
+		int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+		long n = Long.parseLong(shift == 0 ? size : size.substring(0, size.length()-1)) << shift;
+		return (int) Math.min(n, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * @param density
+	 *            share of records that are hits (0 to 1)
+	 * @return size bytes of the kind, the last record might be cut
+	 */
+	static byte[] generate(Kind kind, int size, double density, long seed) {
+		byte[] data = new byte[size];
+		Random rnd = new Random(seed);
+		StringBuilder record = new StringBuilder(128);
+		int n = 0;
+		int i = 0;
+		while (n < size) {
+			record.setLength(0);
+			append(kind, record, rnd, i++, rnd.nextDouble() < density);
+			byte[] bytes = record.toString().getBytes(UTF_8);
+			int len = Math.min(bytes.length, size - n);
+			System.arraycopy(bytes, 0, data, n, len);
+			n += len;
+		}
+		return data;
+	}
+
+	/**
+	 * @param shape
+	 *            "literal" for a scan to a literal, "class" for a scan to a
+	 *            pattern starting with a set
+	 * @return a pattern finding the hits (literal) or a part of each record
+	 *         (class) of the kind
+	 */
+	static byte[] pattern(Kind kind, String shape) {
+		boolean literal = "literal".equals(shape);
+		if (!literal && !"class".equals(shape))
+			throw new IllegalArgumentException("Unknown shape: "+shape);
+		switch (kind) {
+		case LOG:  return bytes(literal ? "~(ERROR )#+" : "~(#+ ms)");
+		case HTML: return bytes(literal ? "~(<p>)~(</p>)" : "~({pP}>~(</))");
+		case CSV:  return bytes(literal ? "~(,-)#+.##" : "~(#+.##,)");
+		default:   return bytes(literal ? "~(Köln)" : "~({?}+)");
+		}
+	}
+
+	private static void append(Kind kind, StringBuilder r, Random rnd, int i, boolean hit) {
+		switch (kind) {
+		case LOG:
+			r.append("2024-").append(two(1 + i / 100000 % 12)).append('-').append(two(1 + i / 5000 % 28))
+				.append(' ').append(two(i / 3600 % 24)).append(':').append(two(i / 60 % 60)).append(':')
+				.append(two(i % 60)).append('.').append(rnd.nextInt(900) + 100);
+			if (hit) {
+				r.append(" ERROR ").append(rnd.nextInt(600)).append(" [worker-").append(rnd.nextInt(16))
+					.append("] ").append(word(rnd)).append(" failed after ").append(rnd.nextInt(5000)).append(" ms\n");
+			} else {
+				r.append(" INFO  [worker-").append(rnd.nextInt(16)).append("] ").append(word(rnd)).append(' ')
+					.append(rnd.nextInt(100000)).append(' ').append(word(rnd)).append(" in ")
+					.append(rnd.nextInt(500)).append(" ms\n");
+			}
+			break;
+		case HTML:
+			if (hit) {
+				r.append("<p>").append(words(rnd, 8)).append("</p>\n");
+			} else
+				r.append("<div class=\"").append(word(rnd)).append("\"><span>").append(words(rnd, 5))
+					.append("</span></div>\n");
+			break;
+		case CSV:
+			r.append(i).append(',').append(word(rnd)).append(',').append(hit ? "-" : "")
+				.append(rnd.nextInt(10000)).append('.').append(two(rnd.nextInt(100))).append(',')
+				.append("2024-").append(two(1 + rnd.nextInt(12))).append('-').append(two(1 + rnd.nextInt(28)))
+				.append('\n');
+			break;
+		case UTF8:
+			for (int w = 0; w < 7; w++)
+				r.append(UTF8_WORDS[rnd.nextInt(UTF8_WORDS.length)]).append(' ');
+			r.append(hit ? "Köln" : word(rnd)).append(".\n");
+			break;
+		}
+	}
+
+	private static String word(Random rnd) {
+		return WORDS[rnd.nextInt(WORDS.length)];
+	}
+
+	private static String words(Random rnd, int n) {
+		StringBuilder words = new StringBuilder();
+		for (int i = 0; i < n; i++)
+			words.append(i == 0 ? "" : " ").append(word(rnd));
+		return words.toString();
+	}
+
+	private static String two(int n) {
+		return n < 10 ? "0" + n : String.valueOf(n);
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,70 @@
+package se.jbee.lex;
+
+import java.util.Arrays;
+
+/**
+ * A pattern with names for its groups to extract fields of records like log
+ * lines into a {@link LexRecord}.
+ *
+ * Names are given for the groups in order of their ( or [ (see
+ * {@link CompiledLex#match(byte[], int, int, int[])}), null for groups that
+ * are not fields. Each name is resolved to the slot of its group once, the
+ * record is accessed by slot.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class LexFields {
+
+	private final CompiledLex lex;
+	private final String[] names;
+
+	/**
+	 * @param names
+	 *            of group 1, 2, ... (null to leave a group unnamed)
+	 */
+	public LexFields(byte[] pattern, String... names) {
+		this.lex = Lex.compile(pattern);
+		if (names.length > lex.groups())
+			throw new IllegalArgumentException("Expected at most "+lex.groups()+" names but got: "+Arrays.toString(names));
+		this.names = names.clone();
+	}
+
+	/**
+	 * @return the slot of the named group in a {@link LexRecord}
+	 * @throws IllegalArgumentException
+	 *             if no group has the name
+	 */
+	public int slot(String name) {
+		for (int i = 0; i < names.length; i++)
+			if (name.equals(names[i]))
+				return i + 1;
+		throw new IllegalArgumentException("No field named: "+name);
+	}
+
+	/**
+	 * @return the name of the group of the slot or null
+	 */
+	public String name(int slot) {
+		return slot > 0 && slot <= names.length ? names[slot-1] : null;
+	}
+
+	/**
+	 * @return a record to match into that fits this pattern
+	 */
+	public LexRecord newRecord() {
+		return new LexRecord(lex.groups());
+	}
+
+	/**
+	 * Matches data[d0..dEnd) and sets the record to the result.
+	 *
+	 * @return true, if the pattern matched and ran to its end (see
+	 *         {@link CompiledLex#matches(byte[], int, int)}), the data after
+	 *         the match is not looked at
+	 */
+	public boolean match(byte[] data, int d0, int dEnd, LexRecord record) {
+		int[] slots = record.reset(data, lex.groups());
+		long pndn = lex.match(data, d0, dEnd, slots);
+		return lex.isComplete(pndn);
+	}
+}
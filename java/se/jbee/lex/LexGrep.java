@@ -0,0 +1,269 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOf;
+import static se.jbee.lex.CompiledLex.isEnd;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Prints the lines of files that match a pattern:
+ *
+ * <pre>
+ * java se.jbee.lex.LexGrep [-c|-l|-b] pattern file...
+ * </pre>
+ *
+ * A line matches when the pattern matches from the line's start and runs to
+ * its end (or a ` ending it), the rest of the line is not looked at. Use ~ to
+ * search within the line. With -c the number of matching lines is printed per file,
+ * with -l the name of files with a matching line and with -b each line is
+ * preceded by the byte offset of its start. Given more than one file lines and
+ * counts are preceded by the file name. The exit status is 0 if a line
+ * matched, 1 if none did and 2 on error.
+ *
+ * Files are memory mapped in windows ending at a line end. Each window is split
+ * at line ends into chunks matched by parallel workers. The output of a chunk
+ * is collected as bytes and written to the output channel in order of the
+ * chunks. With -l a file is done with its first matching line: no more
+ * windows are mapped and the chunks not yet matched are cancelled.
+ */
+public final class LexGrep {
+
+	enum Mode { LINES, COUNT, FILES, OFFSETS }
+
+	private static final int WINDOW = 1 << 30;
+	private static final int CHUNK = 1 << 20;
+
+	private LexGrep() {
+		// not instantiated
+	}
+
+	public static void main(String[] args) {
+		int status = 2;
+		try (FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel()) {
+			status = grep(args, out, System.err);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Runs the command with the given arguments. A pattern that does not
+	 * compile or unknown options end it before any file is read. A file that
+	 * cannot be read is reported to err and the others are still searched.
+	 *
+	 * @return the exit status: 0 if a line matched, 1 if none did, 2 on error
+	 */
+	static int grep(String[] args, WritableByteChannel out, PrintStream err) {
+		Mode mode = Mode.LINES;
+		int i = 0;
+		for (; i < args.length && args[i].length() == 2 && args[i].charAt(0) == '-'; i++) {
+			switch (args[i].charAt(1)) {
+			case 'c': mode = Mode.COUNT; break;
+			case 'l': mode = Mode.FILES; break;
+			case 'b': mode = Mode.OFFSETS; break;
+			default: return error(err, "Unknown option: "+args[i]);
+			}
+		}
+		if (args.length - i < 2)
+			return error(err, "Usage: LexGrep [-c|-l|-b] pattern file...");
+		byte[] pattern = args[i++].getBytes(UTF_8);
+		try {
+			Lex.compile(pattern); // the workers use the interpreter which does not check the pattern
+		} catch (IllegalArgumentException e) {
+			return error(err, e.getMessage());
+		}
+		boolean named = args.length - i > 1;
+		long matches = 0;
+		boolean failed = false;
+		for (; i < args.length; i++) {
+			try {
+				matches += grep(pattern, Paths.get(args[i]), mode, named, out, WINDOW, CHUNK);
+			} catch (IOException | RuntimeException e) { // a worker's failure is rethrown by join
+				err.println(args[i]+": "+e.getMessage());
+				failed = true;
+			}
+		}
+		return failed ? 2 : matches > 0 ? 0 : 1;
+	}
+
+	private static int error(PrintStream err, String msg) {
+		err.println(msg);
+		return 2;
+	}
+
+	/**
+	 * @param named
+	 *            true, to precede lines and counts with the file name
+	 * @param window
+	 *            maximal number of bytes mapped at a time
+	 * @param chunk
+	 *            number of bytes (rounded up to a line end) for a worker
+	 * @return number of matching lines, for {@link Mode#FILES} 1 if a line
+	 *         matched as the search stops with the first
+	 */
+	static long grep(byte[] pattern, Path file, Mode mode, boolean named, WritableByteChannel out, int window,
+			int chunk) throws IOException {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		byte[] name = (file.toString() + (mode == Mode.FILES ? "\n" : ":")).getBytes(UTF_8);
+		byte[] prefix = named && (mode == Mode.LINES || mode == Mode.OFFSETS) ? name : new byte[0];
+		long count = 0;
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = in.size();
+			long pos = 0;
+			ArrayDeque<ForkJoinTask<Lines>> pending = new ArrayDeque<>();
+			boolean first = mode == Mode.FILES; // the first matching line ends the search
+			map: while (pos < size) {
+				long span = Math.min(window, size - pos);
+				MappedByteBuffer data = in.map(MapMode.READ_ONLY, pos, span);
+				while (pos + span < size && span < Integer.MAX_VALUE && lineEnd(data, (int) span) == 0) {
+					span = Math.min(Math.min(span * 2, Integer.MAX_VALUE), size - pos); // grow to a line end
+					data = in.map(MapMode.READ_ONLY, pos, span);
+				}
+				int len = data.limit();
+				if (pos + len < size && lineEnd(data, len) > 0)
+					len = lineEnd(data, len);
+				int d0 = 0;
+				while (d0 < len) {
+					int dEnd = Math.min(len, d0 + chunk);
+					while (dEnd < len && data.get(dEnd-1) != '\n') dEnd++;
+					final MappedByteBuffer lines = data;
+					final int from = d0;
+					final int to = dEnd;
+					final long offset = pos;
+					if (pending.size() >= pool.getParallelism() * 2) {
+						count += write(pending.poll().join(), out);
+						if (first && count > 0)
+							break map;
+					}
+					pending.add(pool.submit(() -> grep(pattern, lines, from, to, offset, mode, prefix)));
+					d0 = dEnd;
+				}
+				pos += len;
+			}
+			while (!pending.isEmpty() && !(first && count > 0))
+				count += write(pending.poll().join(), out);
+			for (ForkJoinTask<Lines> task : pending)
+				task.cancel(false);
+		}
+		if (mode == Mode.FILES)
+			count = Math.min(count, 1);
+		Lines total = new Lines(mode == Mode.COUNT ? 32 : 0);
+		if (mode == Mode.COUNT) {
+			if (named)
+				total.put(name, 0, name.length);
+			total.putNumber(count);
+			total.put((byte) '\n');
+		} else if (mode == Mode.FILES && count > 0)
+			total.put(name, 0, name.length);
+		write(total, out);
+		return count;
+	}
+
+	/**
+	 * @return the position after the last line end before dEnd, 0 if there is
+	 *         none
+	 */
+	private static int lineEnd(ByteBuffer data, int dEnd) {
+		while (dEnd > 0 && data.get(dEnd-1) != '\n') dEnd--;
+		return dEnd;
+	}
+
+	private static long write(Lines lines, WritableByteChannel out) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(lines.bytes, 0, lines.len);
+		while (buf.hasRemaining())
+			out.write(buf);
+		return lines.count;
+	}
+
+	private static Lines grep(byte[] pattern, ByteBuffer data, int from, int to, long offset, Mode mode, byte[] prefix) {
+		Lines lines = new Lines(mode == Mode.LINES || mode == Mode.OFFSETS ? 8192 : 0);
+		int d0 = from;
+		while (d0 < to) {
+			int eol = d0;
+			while (eol < to && data.get(eol) != '\n') eol++;
+			long pndn = Lex.match(pattern, 0, data, d0, eol, -1, -1);
+			if ((int)pndn >= 0 && isEnd(pattern, (int)(pndn >> 32))) {
+				lines.count++;
+				if (mode == Mode.FILES)
+					return lines;
+				if (mode == Mode.LINES || mode == Mode.OFFSETS) {
+					lines.put(prefix, 0, prefix.length);
+					if (mode == Mode.OFFSETS) {
+						lines.putNumber(offset + d0);
+						lines.put((byte) ':');
+					}
+					lines.put(data, d0, eol);
+					lines.put((byte) '\n');
+				}
+			}
+			d0 = eol + 1;
+		}
+		return lines;
+	}
+
+	/**
+	 * The output of a chunk: the matching lines (as written) and their count.
+	 */
+	private static final class Lines {
+
+		byte[] bytes;
+		int len;
+		long count;
+
+		Lines(int capacity) {
+			this.bytes = new byte[capacity];
+		}
+
+		private void ensure(int n) {
+			if (len + n > bytes.length)
+				bytes = copyOf(bytes, Math.max(bytes.length * 2, len + n));
+		}
+
+		void put(byte b) {
+			ensure(1);
+			bytes[len++] = b;
+		}
+
+		void put(byte[] src, int from, int to) {
+			ensure(to - from);
+			System.arraycopy(src, from, bytes, len, to - from);
+			len += to - from;
+		}
+
+		void put(ByteBuffer src, int from, int to) {
+			ensure(to - from);
+			src.get(from, bytes, len, to - from);
+			len += to - from;
+		}
+
+		void putNumber(long n) {
+			int digits = 1;
+			for (long m = n; m >= 10; m /= 10)
+				digits++;
+			ensure(digits);
+			int end = len + digits;
+			int i = end;
+			do {
+				bytes[--i] = (byte) ('0' + n % 10);
+				n /= 10;
+			} while (n > 0);
+			len = end;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package se.jbee.lex;
+
+import static java.util.Arrays.fill;
+import static se.jbee.lex.ByteSearch.inClass;
+import static se.jbee.lex.ByteSearch.isClass;
+import static se.jbee.lex.Lex.inSet;
+import static se.jbee.lex.Lex.isOp;
+import static se.jbee.lex.Lex.isUtf8Set;
+import static se.jbee.lex.Lex.literal;
+import static se.jbee.lex.Lex.skipBeyondSet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What is known about the matches of a pattern without looking at data: the
+ * least and most bytes a match consumes, the bytes it can start with and the
+ * literals it must contain.
+ *
+ * This is about complete matches, those where the pattern ran to its end (or to
+ * a ` ending it). A match that succeeds because the data ended before the
+ * pattern did (see {@link Lex#match(byte[], int, byte[], int)}) can be shorter
+ * and does not need to contain the literals.
+ *
+ * The analysis is a single pass over the pattern without recursion. Where the
+ * exact value is hard to know it errs to the safe side: lengths are bounds, the
+ * set of first bytes may be too large and literals may be missing.
+ */
+public final class LexInfo {
+
+	private final int minLength;
+	private final int maxLength;
+	private final long[] first;
+	private final byte[][] literals;
+	private final boolean ignoreCase;
+	/**
+	 * For the instruction after a ~ the bytes a candidate of the scan can start
+	 * with, null if any
+	 */
+	private final long[][] scanFirst;
+
+	/**
+	 * A ( or [ block (or the pattern itself) while it is analysed
+	 */
+	private static final class Block {
+
+		final int p0;
+		final boolean optional;
+		final boolean required;
+		final boolean scanned;
+		int min;
+		int max;
+		final long[] first = new long[4];
+		/**
+		 * true while the block might not have consumed a byte yet
+		 */
+		boolean empty = true;
+		/**
+		 * start of the literal bytes seen last or -1
+		 */
+		int run = -1;
+
+		Block(int p0, boolean optional, boolean required, boolean scanned) {
+			this.p0 = p0;
+			this.optional = optional;
+			this.required = required;
+			this.scanned = scanned;
+		}
+	}
+
+	public LexInfo(byte[] pattern) {
+		this(pattern, false);
+	}
+
+	/**
+	 * @param ignoreCase
+	 *            true, if ASCII letters match in both cases (see
+	 *            {@link Lex#compile(byte[], boolean)})
+	 */
+	public LexInfo(byte[] pattern, boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		final int len = pattern.length;
+		this.scanFirst = new long[len][];
+		List<byte[]> literals = new ArrayList<>();
+		ArrayDeque<Block> outer = new ArrayDeque<>();
+		Block b = new Block(0, false, true, false);
+		boolean ended = false; // by a ` after that nothing counts
+		boolean exits = false;
+		boolean scan = false;
+		int pn = 0;
+		while (pn < len) {
+			int pOp = pn;
+			byte op = pattern[pn++];
+			boolean literal = op == '\\' || !isOp(op);
+			if (!literal)
+				endRun(b, pattern, pOp, ended, literals);
+			if (literal || op == '{' || isClass(op)) { // consumes one byte (or code point)
+				long[] bits = new long[4];
+				int bytes = 1;
+				if (op == '{') {
+					boolean utf8 = pn < len && isUtf8Set(pattern, pn);
+					for (int c = 0; c < 256; c++)
+						if (pn < len && (utf8 && c >= 0x80 || inSet(pattern, pn, (byte) c)))
+							bits[c >> 6] |= 1L << c;
+					if (utf8)
+						bytes = 4;
+					pn = skipBeyondSet(pattern, pOp);
+				} else if (isClass(op)) {
+					for (int c = 0; c < 256; c++)
+						if (inClass(op, (byte) c))
+							bits[c >> 6] |= 1L << c;
+				} else {
+					byte c = op == '\\' && pn < len ? pattern[pn++] : op;
+					bits[(c & 0xFF) >> 6] |= 1L << c;
+					if (b.run < 0)
+						b.run = pOp;
+				}
+				if (scan)
+					scanFirst[pOp] = bits;
+				if (!ended) {
+					b.min++;
+					if (b.max >= 0)
+						b.max += bytes;
+					if (b.empty) {
+						or(b.first, bits);
+						b.empty = false;
+					}
+				}
+			} else {
+				switch (op) {
+				case '(':
+				case '[':
+					outer.push(b);
+					b = new Block(pn, op == '[', b.required && op == '(', scan);
+					break;
+				case ')':
+				case ']':
+				case '}':
+					if (!outer.isEmpty())
+						b = close(b, outer.pop());
+					break;
+				case '~':
+					if (!ended && b.empty) {
+						fill(b.first, -1L);
+						b.empty = false;
+					}
+					b.max = -1;
+					break;
+				case '+':
+					b.max = -1;
+					break;
+				case '`':
+					if (pOp > b.p0 && !ended) {
+						ended = true;
+						exits = true;
+						// the match might end here or continue after an optional block
+						if (b.empty)
+							fill(b.first, -1L);
+						for (Block e : outer)
+							if (e.empty)
+								fill(e.first, -1L);
+					}
+					break;
+				}
+			}
+			scan = op == '~';
+		}
+		endRun(b, pattern, len, ended, literals);
+		while (!outer.isEmpty())
+			b = close(b, outer.pop());
+		this.minLength = b.min;
+		this.maxLength = exits ? -1 : b.max;
+		this.first = b.first;
+		this.literals = literals.toArray(new byte[0][]);
+		if (ignoreCase) {
+			foldCase(first);
+			for (long[] bits : scanFirst)
+				if (bits != null)
+					foldCase(bits);
+		}
+	}
+
+	/**
+	 * Adds the other case of each ASCII letter in the set.
+	 */
+	static void foldCase(long[] bits) {
+		for (int c = 'A'; c <= 'Z'; c++) {
+			long upper = bits[c >> 6] >> c & 1L | bits[(c|0x20) >> 6] >> (c|0x20) & 1L;
+			bits[c >> 6] |= upper << c;
+			bits[(c|0x20) >> 6] |= upper << (c|0x20);
+		}
+	}
+
+	private static void endRun(Block b, byte[] pattern, int pEnd, boolean ended, List<byte[]> literals) {
+		if (b.run >= 0 && b.required && !ended)
+			literals.add(literal(pattern, b.run, pEnd));
+		b.run = -1;
+	}
+
+	private Block close(Block inner, Block b) {
+		if (inner.scanned && !inner.optional && !inner.empty)
+			scanFirst[inner.p0-1] = inner.first;
+		b.max = inner.max < 0 || b.max < 0 ? -1 : b.max + inner.max;
+		if (!inner.optional)
+			b.min += inner.min;
+		if (b.empty) {
+			or(b.first, inner.first);
+			if (!inner.optional && !inner.empty)
+				b.empty = false;
+		}
+		return b;
+	}
+
+	private static void or(long[] bits, long[] other) {
+		for (int i = 0; i < 4; i++)
+			bits[i] |= other[i];
+	}
+
+	static boolean isMember(long[] bits, byte b) {
+		return (bits[(b & 0xFF) >> 6] & 1L << b) != 0L;
+	}
+
+	/**
+	 * @return least number of bytes a complete match consumes
+	 */
+	public int minLength() {
+		return minLength;
+	}
+
+	/**
+	 * @return most bytes a complete match consumes or -1 if there is no limit
+	 */
+	public int maxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @return false, if no complete match that consumes bytes starts with b
+	 */
+	public boolean canStartWith(byte b) {
+		return isMember(first, b);
+	}
+
+	/**
+	 * @return literals each complete match contains, in order of the pattern (as
+	 *         written, ignoring the case if the analysis does)
+	 */
+	public byte[][] requiredLiterals() {
+		byte[][] copy = new byte[literals.length][];
+		for (int i = 0; i < copy.length; i++)
+			copy[i] = literals[i].clone();
+		return copy;
+	}
+
+	/**
+	 * @return false, if data[d0..dEnd) cannot be completely matched by the
+	 *         pattern
+	 */
+	boolean accepts(byte[] data, int d0, int dEnd, Literal longest) {
+		int len = dEnd - d0;
+		return len >= minLength && (maxLength < 0 || len <= maxLength)
+				&& (len == 0 || isMember(first, data[d0]))
+				&& (longest == null || longest.indexOf(data, d0, dEnd) < dEnd);
+	}
+
+	/**
+	 * @return the longest required literal prepared for search or null if there
+	 *         is none
+	 */
+	Literal longestLiteral() {
+		byte[] longest = null;
+		for (byte[] l : literals)
+			if (longest == null || l.length > longest.length)
+				longest = l;
+		return longest == null ? null : new Literal(longest, ignoreCase);
+	}
+
+	/**
+	 * @return for the instruction at p0 following a ~ the bytes a candidate must
+	 *         start with or null if there is no restriction
+	 */
+	long[] scanFirst(int p0) {
+		return scanFirst[p0];
+	}
+}
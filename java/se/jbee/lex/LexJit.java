@@ -0,0 +1,592 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a class for a pattern that matches like
+ * {@link CompiledLex#match(byte[], int, int)} but has the pattern's
+ * instructions turned into straight-line code: there is no dispatch on the
+ * instruction, sets become comparisons with the ranges of bytes they contain
+ * and each ( or [ block becomes a method of its own. Repeating a single byte
+ * instruction with + becomes a loop. Repeating anything else and the scans
+ * of ~ call back into the {@link CompiledLex}.
+ *
+ * The class is defined as hidden class so it can be unloaded as soon as the
+ * {@link CompiledLex} using it is no longer referenced. The class file is of
+ * version 49 which does not need stack map frames.
+ *
+ * Patterns with ` within a block are not generated since these exit a block
+ * in the middle. Neither are patterns nesting blocks deeper than
+ * {@value #MAX_DEPTH} as the methods of blocks call each other recursively,
+ * these are left to the iterative {@link CompiledLex}.
+ */
+final class LexJit {
+
+	interface Matcher {
+
+		long match(byte[] data, int d0, int dEnd);
+	}
+
+	private static final String NAME = "se/jbee/lex/LexJitMatcher";
+	private static final String LEX = "se/jbee/lex/CompiledLex";
+	private static final String BLOCK = "([BII)J";
+	private static final int MAX_DEPTH = 256;
+
+	/**
+	 * Local variables of the block methods (0 is this, 1 is data)
+	 */
+	private static final int DN = 2, DEND = 3, DR = 4, U = 5, PNDN = 6;
+
+	private LexJit() {
+		// not instantiated
+	}
+
+	/**
+	 * @return the generated matcher or null if the pattern is not supported or
+	 *         the class could not be defined
+	 */
+	static Matcher generate(CompiledLex lex, byte[] pattern) {
+		try {
+			byte[] bytes = new LexJit.ClassFile(lex, pattern).bytes();
+			if (bytes == null)
+				return null;
+			Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			return (Matcher) lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class, CompiledLex.class)).invoke(lex);
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Thrown when the code exceeds limits of the class file format
+	 */
+	@SuppressWarnings("serial")
+	private static final class TooLarge extends RuntimeException {
+
+		TooLarge() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final class ClassFile {
+
+		final CompiledLex lex;
+		final byte[] pattern;
+		final Pool pool = new Pool();
+
+		ClassFile(CompiledLex lex, byte[] pattern) {
+			this.lex = lex;
+			this.pattern = pattern;
+		}
+
+		byte[] bytes() {
+			if (pattern.length > Short.MAX_VALUE || !isSupported())
+				return null;
+			List<byte[]> methods = new ArrayList<>();
+			methods.add(method(0x0001, "<init>", "(L"+LEX+";)V", 2, 2, init()));
+			methods.add(method(0x0001, "match", BLOCK, 4, 4, match()));
+			Blocks blocks = new Blocks(pattern.length);
+			blocks.add(0);
+			while (!blocks.isEmpty()) {
+				int p0 = blocks.poll();
+				try {
+					methods.add(method(0x0010, "b"+p0, BLOCK, 8, 8, block(p0, blocks)));
+				} catch (TooLarge e) {
+					return null;
+				}
+			}
+			int thisClass = pool.classRef(NAME);
+			int superClass = pool.classRef("java/lang/Object");
+			int matcher = pool.classRef("se/jbee/lex/LexJit$Matcher");
+			int lexField = pool.utf8("lex");
+			int lexType = pool.utf8("L"+LEX+";");
+			Bytes out = new Bytes();
+			out.u4(0xCAFEBABE);
+			out.u2(0);
+			out.u2(49);
+			pool.writeTo(out);
+			out.u2(0x0030); // final super
+			out.u2(thisClass);
+			out.u2(superClass);
+			out.u2(1);
+			out.u2(matcher);
+			out.u2(1); // fields
+			out.u2(0x0012); // private final
+			out.u2(lexField);
+			out.u2(lexType);
+			out.u2(0);
+			out.u2(methods.size());
+			for (byte[] m : methods)
+				out.write(m, 0, m.length);
+			out.u2(0); // attributes
+			return out.toByteArray();
+		}
+
+		private boolean isSupported() {
+			int depth = 0;
+			for (int i = 0; i < pattern.length; i++) {
+				switch (pattern[i]) {
+				case '\\': if (++i >= pattern.length) return false; break;
+				case '{' : i = lex.next(i)-1; break;
+				case '(' :
+				case '[' : if (++depth > MAX_DEPTH) return false; break;
+				case ')' :
+				case ']' : depth--; break;
+				case '`' : if (depth > 0) return false; break;
+				}
+			}
+			return true;
+		}
+
+		private byte[] method(int access, String name, String desc, int maxStack, int maxLocals, Code code) {
+			byte[] bytecode = code.toByteArray();
+			if (bytecode.length > 0xFFFF)
+				throw new TooLarge();
+			Bytes m = new Bytes();
+			m.u2(access);
+			m.u2(pool.utf8(name));
+			m.u2(pool.utf8(desc));
+			m.u2(1);
+			m.u2(pool.utf8("Code"));
+			m.u4(12 + bytecode.length);
+			m.u2(maxStack);
+			m.u2(maxLocals);
+			m.u4(bytecode.length);
+			m.write(bytecode, 0, bytecode.length);
+			m.u2(0); // exceptions
+			m.u2(0); // attributes
+			return m.toByteArray();
+		}
+
+		private Code init() {
+			Code c = new Code();
+			c.op(0x2A); // aload_0
+			c.op(0xB7).u2(pool.methodRef("java/lang/Object", "<init>", "()V")); // invokespecial
+			c.op(0x2A);
+			c.op(0x2B); // aload_1
+			c.op(0xB5).u2(pool.fieldRef(NAME, "lex", "L"+LEX+";")); // putfield
+			c.op(0xB1); // return
+			return c;
+		}
+
+		private Code match() {
+			Code c = new Code();
+			c.op(0x2A);
+			c.op(0x2B);
+			c.op(0x1C); // iload_2
+			c.op(0x1D); // iload_3
+			c.op(0xB6).u2(pool.methodRef(NAME, "b0", BLOCK)); // invokevirtual
+			c.op(0xAD); // lreturn
+			return c;
+		}
+
+		/**
+		 * Same as {@link CompiledLex} matching from p0 without a + being retried
+		 * and without a limit of operations.
+		 */
+		private Code block(int p0, Blocks blocks) {
+			Code c = new Code();
+			int pn = p0;
+			int pPlus0 = -1;
+			while (pn < pattern.length) {
+				int pOp = pn;
+				byte op = pattern[pn++];
+				Label ok = new Label();
+				c.iload(DN).iload(DEND).jump(0xA1, ok); // if_icmplt
+				returnPos(c, pOp, false);
+				c.mark(ok);
+				switch (op) {
+				case '\\':
+					literal(c, pOp, pattern[pn++]);
+					break;
+				default:
+					literal(c, pOp, op);
+					break;
+				case '?':
+					c.op(0x84).u1(DN).u1(1); // iinc
+					break;
+				case '^':
+				case '_':
+				case '$':
+				case '@':
+				case '#':
+				case '{': {
+					Label in = new Label();
+					Label out = new Label();
+					member(c, pOp, in, out);
+					c.mark(out);
+					returnPos(c, pOp, true);
+					c.mark(in);
+					c.op(0x84).u1(DN).u1(1);
+					if (op == '{')
+						pn = lex.next(pOp);
+					break;
+				}
+				case '}':
+				case ')':
+				case ']':
+					returnPos(c, pn, false);
+					return c;
+				case '`':
+					if (pOp > p0) {
+						returnPos(c, pn, false);
+						return c;
+					}
+					break;
+				case '(':
+				case '[': {
+					blocks.add(pn);
+					int next = lex.next(pOp);
+					Label matched = new Label();
+					Label after = new Label();
+					Label exit = new Label();
+					c.op(0x2A).op(0x2B).iload(DN).iload(DEND);
+					c.op(0xB6).u2(pool.methodRef(NAME, "b"+pn, BLOCK));
+					c.op(0x37).u1(PNDN); // lstore
+					c.op(0x16).u1(PNDN).op(0x88).jump(0x9C, matched); // lload l2i ifge
+					if (op == '(') {
+						c.op(0x16).u1(PNDN).op(0xAD);
+					} else
+						c.jump(0xA7, after); // goto
+					c.mark(matched);
+					c.op(0x16).u1(PNDN).op(0x88).istore(DN);
+					c.op(0x16).u1(PNDN).iconst(32).op(0x7D).op(0x88); // lushr l2i
+					c.iconst(next).jump(0xA0, exit); // if_icmpne
+					c.iload(DN).iload(DEND).jump(0xA1, after);
+					c.mark(exit);
+					c.op(0x16).u1(PNDN).op(0xAD);
+					c.mark(after);
+					pn = next;
+					break;
+				}
+				case '~': {
+					Label found = new Label();
+					c.iload(DN).istore(DR);
+					lex(c).iconst(pn).op(0x2B).iload(DN).iload(DEND);
+					c.op(0xB6).u2(pool.methodRef(LEX, "scan", "(I[BII)I"));
+					c.op(0x59).istore(DN); // dup
+					c.iload(DEND).jump(0xA1, found);
+					c.iconst(pn).iload(DR);
+					c.op(0xB8).u2(pool.methodRef("se/jbee/lex/Lex", "mismatchAt", "(I)I"));
+					c.op(0xB8).u2(pool.methodRef("se/jbee/lex/Lex", "pos", "(II)J"));
+					c.op(0xAD);
+					c.mark(found);
+					break;
+				}
+				case '+':
+					if (pOp > p0 && pattern[pPlus0] != '+')
+						plus(c, pPlus0, pOp);
+					break;
+				}
+				pPlus0 = pOp;
+			}
+			returnPos(c, pn, false);
+			return c;
+		}
+
+		private void literal(Code c, int pOp, byte b) {
+			Label ok = new Label();
+			c.op(0x2B).iload(DN).op(0x33).iconst(b).jump(0x9F, ok); // baload if_icmpeq
+			returnPos(c, pOp, true);
+			c.mark(ok);
+			c.op(0x84).u1(DN).u1(1);
+		}
+
+		/**
+		 * Jumps to in if data[dn] is member of the set (or literal) at pOp,
+		 * otherwise to out.
+		 */
+		private void member(Code c, int pOp, Label in, Label out) {
+			byte op = pattern[pOp];
+			if (op == '\\' || !isSet(op)) {
+				c.op(0x2B).iload(DN).op(0x33).iconst(op == '\\' ? pattern[pOp+1] : op).jump(0x9F, in);
+				c.jump(0xA7, out);
+				return;
+			}
+			c.op(0x2B).iload(DN).op(0x33).iconst(0xFF).op(0x7E).istore(U); // iand
+			int b = 0;
+			while (b < 256) {
+				while (b < 256 && !lex.inSetAt(pOp, (byte) b)) b++;
+				if (b == 256)
+					break;
+				int lo = b;
+				while (b < 256 && lex.inSetAt(pOp, (byte) b)) b++;
+				int hi = b-1;
+				if (lo == 0 && hi == 255) {
+					c.jump(0xA7, in);
+					return;
+				}
+				if (lo == hi) {
+					c.iload(U).iconst(lo).jump(0x9F, in);
+				} else {
+					Label next = new Label();
+					c.iload(U).iconst(lo).jump(0xA1, next);
+					c.iload(U).iconst(hi).jump(0xA4, in); // if_icmple
+					c.mark(next);
+				}
+			}
+			c.jump(0xA7, out);
+		}
+
+		private static boolean isSet(byte op) {
+			return op == '{' || op == '#' || op == '@' || op == '_' || op == '^' || op == '$';
+		}
+
+		private void plus(Code c, int pPlus0, int pOp) {
+			byte x = pattern[pPlus0];
+			if (x == '?') {
+				c.iload(DEND).istore(DN);
+			} else if (isSet(x) || x == '\\' || isLiteral(x)) {
+				Label loop = new Label();
+				Label in = new Label();
+				Label done = new Label();
+				c.mark(loop);
+				c.iload(DN).iload(DEND).jump(0xA2, done); // if_icmpge
+				member(c, pPlus0, in, done);
+				c.mark(in);
+				c.op(0x84).u1(DN).u1(1);
+				c.jump(0xA7, loop);
+				c.mark(done);
+			} else {
+				Label positive = new Label();
+				lex(c).iconst(pPlus0).op(0x2B).iload(DN).iload(DEND).iconst(pOp);
+				c.op(0xB6).u2(pool.methodRef(LEX, "matchPlussed", "(I[BIII)J"));
+				c.op(0x88).op(0x59).istore(DN).jump(0x9C, positive);
+				c.iload(DN).op(0xB8).u2(pool.methodRef("se/jbee/lex/Lex", "mismatchAt", "(I)I")).istore(DN);
+				c.mark(positive);
+			}
+		}
+
+		/**
+		 * @return true, if the interpreter treats op as literal byte
+		 */
+		private static boolean isLiteral(byte op) {
+			switch (op) {
+			case '\\': case '?': case '^': case '_': case '$': case '@': case '#':
+			case '}': case ')': case ']': case '`': case '(': case '[': case '~':
+			case '+': case '{':
+				return false;
+			default:
+				return true;
+			}
+		}
+
+		private Code lex(Code c) {
+			return c.op(0x2A).op(0xB4).u2(pool.fieldRef(NAME, "lex", "L"+LEX+";")); // getfield
+		}
+
+		/**
+		 * Returns pos(pn,dn) or pos(pn,mismatchAt(dn))
+		 */
+		private void returnPos(Code c, int pn, boolean mismatch) {
+			c.iconst(pn).iload(DN);
+			if (mismatch)
+				c.op(0xB8).u2(pool.methodRef("se/jbee/lex/Lex", "mismatchAt", "(I)I"));
+			c.op(0xB8).u2(pool.methodRef("se/jbee/lex/Lex", "pos", "(II)J"));
+			c.op(0xAD);
+		}
+	}
+
+	/**
+	 * Start positions of the blocks still to generate
+	 */
+	private static final class Blocks {
+
+		private final boolean[] added;
+		private final int[] queue; // each block is added once
+		private int head;
+		private int tail;
+
+		Blocks(int len) {
+			this.added = new boolean[len + 1];
+			this.queue = new int[len + 1];
+		}
+
+		void add(int p0) {
+			if (!added[p0]) {
+				added[p0] = true;
+				queue[tail++] = p0;
+			}
+		}
+
+		boolean isEmpty() {
+			return head == tail;
+		}
+
+		int poll() {
+			return queue[head++];
+		}
+	}
+
+	private static final class Label {
+
+		int at = -1;
+		final List<int[]> uses = new ArrayList<>(2);
+	}
+
+	private static class Bytes extends ByteArrayOutputStream {
+
+		Bytes u1(int v) {
+			write(v);
+			return this;
+		}
+
+		Bytes u2(int v) {
+			write(v >> 8);
+			write(v);
+			return this;
+		}
+
+		Bytes u4(int v) {
+			u2(v >>> 16);
+			u2(v);
+			return this;
+		}
+	}
+
+	private static final class Code extends Bytes {
+
+		Code op(int opcode) {
+			write(opcode);
+			return this;
+		}
+
+		@Override
+		Code u1(int v) {
+			super.u1(v);
+			return this;
+		}
+
+		@Override
+		Code u2(int v) {
+			super.u2(v);
+			return this;
+		}
+
+		Code iload(int var) {
+			return op(0x1A + var <= 0x1D ? 0x1A + var : 0x15).u1ifWide(var, 0x1A + var > 0x1D);
+		}
+
+		Code istore(int var) {
+			return op(0x3B + var <= 0x3E ? 0x3B + var : 0x36).u1ifWide(var, 0x3B + var > 0x3E);
+		}
+
+		private Code u1ifWide(int var, boolean wide) {
+			if (wide)
+				u1(var);
+			return this;
+		}
+
+		Code iconst(int v) {
+			if (v >= -1 && v <= 5)
+				return op(0x03 + v);
+			if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE)
+				return op(0x10).u1(v);
+			return op(0x11).u2(v); // sipush (pattern positions are limited to short)
+		}
+
+		Code jump(int opcode, Label target) {
+			int at = count;
+			op(opcode);
+			if (target.at >= 0) {
+				int offset = target.at - at;
+				if (offset < Short.MIN_VALUE)
+					throw new TooLarge();
+				u2(offset);
+			} else {
+				target.uses.add(new int[] { at, count });
+				u2(0);
+			}
+			return this;
+		}
+
+		void mark(Label label) {
+			label.at = count;
+			for (int[] use : label.uses) {
+				int offset = label.at - use[0];
+				if (offset > Short.MAX_VALUE)
+					throw new TooLarge();
+				buf[use[1]] = (byte) (offset >> 8);
+				buf[use[1]+1] = (byte) offset;
+			}
+		}
+	}
+
+	private static final class Pool {
+
+		private final Bytes entries = new Bytes();
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private int count = 1;
+
+		int utf8(String s) {
+			Integer i = indexes.get("U"+s);
+			if (i != null)
+				return i;
+			entries.u1(1);
+			byte[] b = s.getBytes(UTF_8);
+			entries.u2(b.length);
+			entries.write(b, 0, b.length);
+			return add("U"+s);
+		}
+
+		int classRef(String name) {
+			Integer i = indexes.get("C"+name);
+			if (i != null)
+				return i;
+			int n = utf8(name);
+			entries.u1(7);
+			entries.u2(n);
+			return add("C"+name);
+		}
+
+		int methodRef(String owner, String name, String desc) {
+			return memberRef(10, owner, name, desc);
+		}
+
+		int fieldRef(String owner, String name, String desc) {
+			return memberRef(9, owner, name, desc);
+		}
+
+		private int memberRef(int tag, String owner, String name, String desc) {
+			String key = tag+owner+"."+name+desc;
+			Integer i = indexes.get(key);
+			if (i != null)
+				return i;
+			int c = classRef(owner);
+			int n = utf8(name);
+			int d = utf8(desc);
+			Integer nt = indexes.get("N"+name+desc);
+			if (nt == null) {
+				entries.u1(12);
+				entries.u2(n);
+				entries.u2(d);
+				nt = add("N"+name+desc);
+			}
+			entries.u1(tag);
+			entries.u2(c);
+			entries.u2(nt);
+			return add(key);
+		}
+
+		private int add(String key) {
+			indexes.put(key, count);
+			return count++;
+		}
+
+		void writeTo(Bytes out) {
+			out.u2(count);
+			byte[] b = entries.toByteArray();
+			out.write(b, 0, b.length);
+		}
+	}
+}
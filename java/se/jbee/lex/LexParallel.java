@@ -0,0 +1,157 @@
+package se.jbee.lex;
+
+import static java.util.Arrays.binarySearch;
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.copyOfRange;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches a large array using a {@link ForkJoinPool}.
+ *
+ * The result is the same as the one of the sequential search loop: starting
+ * at 0 each match continues at the end of the previous one until the first
+ * mismatch or empty match.
+ *
+ * The data is split into chunks. For each chunk the chain of matches is
+ * computed on its own starting at the beginning of the chunk until it reaches
+ * into the next chunk. Matching only considers the data of the chunk and, if
+ * the pattern has a {@link LexInfo#maxLength()}, as many bytes after it. The
+ * chain stops before the first match that ran into that end as its outcome
+ * might be different given all data. When joining the chains the sequential
+ * chain enters a chunk at some position. Once it hits a position of the
+ * chunk's chain both are the same from there on. Otherwise (or after a chain
+ * stopped) the matches are computed sequentially until that is the case.
+ */
+public final class LexParallel {
+
+	private static final int MIN_CHUNK = 1 << 16;
+
+	private LexParallel() {
+		// not instantiated
+	}
+
+	public static int[] findAll(byte[] pattern, byte[] data) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		return findAll(pattern, data, pool, Math.max(MIN_CHUNK, data.length / (pool.getParallelism() * 4)));
+	}
+
+	/**
+	 * @return the end positions of all matches in order
+	 */
+	public static int[] findAll(byte[] pattern, byte[] data, ForkJoinPool pool, int chunk) {
+		CompiledLex lex = Lex.compile(pattern);
+		int chunks = (data.length + chunk - 1) / chunk;
+		if (chunks <= 1) {
+			int[] chain = chain(pattern, data, 0, data.length, data.length);
+			return copyOfRange(chain, 1, chain[0] + 1);
+		}
+		int[][] chains = new int[chunks][];
+		pool.invoke(new Chains(pattern, lex.info().maxLength(), data, chunk, chains, 0, chunks));
+		return join(lex, data, chunk, chains);
+	}
+
+	private static int[] join(CompiledLex lex, byte[] data, int chunk, int[][] chains) {
+		int[] ends = new int[64];
+		int count = 0;
+		int d0 = 0;
+		for (int i = 0; i < chains.length; i++) {
+			int s = i * chunk;
+			int e = Math.min(s + chunk, data.length);
+			int[] chain = chains[i];
+			int len = chain[0];
+			// find the link of the chunk's chain where the sequential chain enters it
+			int k = d0 == s ? 0 : binarySearch(chain, 1, len + 1, d0);
+			while (k < 0 && d0 < e) { // sequential until in sync
+				int dn = (int) lex.match(data, d0);
+				if (dn <= d0)
+					return copyOf(ends, count);
+				if (count == ends.length)
+					ends = copyOf(ends, count * 2);
+				ends[count++] = dn;
+				d0 = dn;
+				k = binarySearch(chain, 1, len + 1, d0);
+			}
+			if (k >= 0) {
+				if (count + len >= ends.length)
+					ends = copyOf(ends, Math.max(count * 2, count + len));
+				for (int j = k + 1; j <= len; j++)
+					ends[count++] = chain[j];
+				if (chain[len + 1] < 0) // chain ended
+					return copyOf(ends, count);
+				if (len > 0)
+					d0 = chain[len];
+			}
+		}
+		return copyOf(ends, count);
+	}
+
+	/**
+	 * @param limit
+	 *            end of the data considered by matches, a match running into it
+	 *            (before the end of data) stops the chain
+	 * @return the ends of matches starting at d0 until a match ends at or after
+	 *         dEnd, with the count at index 0. The last element is negative if
+	 *         the chain ended with a mismatch or empty match.
+	 */
+	static int[] chain(byte[] pattern, byte[] data, int d0, int dEnd, int limit) {
+		int[] chain = new int[16];
+		int len = 0;
+		boolean ended = false;
+		boolean[] open = new boolean[1];
+		while (d0 < dEnd) {
+			int dn = (int) Lex.match(pattern, data, d0, limit, open);
+			if (open[0] && limit < data.length)
+				break; // continued by join
+			if (dn <= d0) {
+				ended = true;
+				break;
+			}
+			if (len + 2 >= chain.length)
+				chain = copyOf(chain, chain.length * 2);
+			chain[++len] = dn;
+			d0 = dn;
+		}
+		chain = copyOf(chain, len + 2);
+		chain[0] = len;
+		chain[len + 1] = ended ? -1 : 0;
+		return chain;
+	}
+
+	@SuppressWarnings("serial")
+	private static final class Chains extends RecursiveAction {
+
+		final byte[] pattern;
+		final int maxLength;
+		final byte[] data;
+		final int chunk;
+		final int[][] chains;
+		final int from;
+		final int to;
+
+		Chains(byte[] pattern, int maxLength, byte[] data, int chunk, int[][] chains, int from, int to) {
+			this.pattern = pattern;
+			this.maxLength = maxLength;
+			this.data = data;
+			this.chunk = chunk;
+			this.chains = chains;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				int s = from * chunk;
+				int e = Math.min(s + chunk, data.length);
+				int limit = maxLength < 0 ? e : (int) Math.min(data.length, (long) e + maxLength);
+				chains[from] = chain(pattern, data, s, e, limit);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Chains(pattern, maxLength, data, chunk, chains, from, mid),
+						new Chains(pattern, maxLength, data, chunk, chains, mid, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static se.jbee.lex.ByteSearch.isClass;
+import static se.jbee.lex.Lex.CODE_POINT;
+import static se.jbee.lex.Lex.FRAME;
+import static se.jbee.lex.Lex.GROUP;
+import static se.jbee.lex.Lex.PLUS;
+import static se.jbee.lex.Lex.SCAN;
+import static se.jbee.lex.Lex.codePoint;
+import static se.jbee.lex.Lex.hop;
+import static se.jbee.lex.Lex.hopSite;
+import static se.jbee.lex.Lex.inSet;
+import static se.jbee.lex.Lex.inSetUtf8;
+import static se.jbee.lex.Lex.isNL;
+import static se.jbee.lex.Lex.isOp;
+import static se.jbee.lex.Lex.isUtf8Set;
+import static se.jbee.lex.Lex.isWS;
+import static se.jbee.lex.Lex.literalEnd;
+import static se.jbee.lex.Lex.mismatchAt;
+import static se.jbee.lex.Lex.pos;
+import static se.jbee.lex.Lex.push;
+import static se.jbee.lex.Lex.skipBeyondBlock;
+import static se.jbee.lex.Lex.skipBeyondSet;
+import static se.jbee.lex.Lex.skipToNext;
+
+import java.util.Arrays;
+
+/**
+ * Matches like {@link Lex#match(byte[], int, byte[], int)} while counting
+ * for each position in the pattern:
+ *
+ * <ul>
+ * <li>how often the instruction was evaluated</li>
+ * <li>for ~ the number of bytes scanned, the candidates tested and how many of
+ * them matched</li>
+ * <li>for + how often the repeated instruction was retried</li>
+ * </ul>
+ *
+ * {@link #toString()} shows the counts below the pattern.
+ *
+ * This is a copy of the matching algorithm with counters added so that the
+ * other matchers do not pay for it. It is not optimized.
+ */
+public final class LexProfile {
+
+	private final byte[] pattern;
+	private final long[] runs;
+	private final long[] scanned;
+	private final long[] candidates;
+	private final long[] hits;
+	private final long[] retries;
+
+	public LexProfile(byte[] pattern) {
+		this.pattern = pattern.clone();
+		int len = pattern.length;
+		this.runs = new long[len];
+		this.scanned = new long[len];
+		this.candidates = new long[len];
+		this.hits = new long[len];
+		this.retries = new long[len];
+	}
+
+	public long match(byte[] data, int d0) {
+		return match(0, data, d0, data.length, -1, -1);
+	}
+
+	public long match(byte[] data, int d0, int dEnd) {
+		return match(0, data, d0, dEnd, -1, -1);
+	}
+
+	public long runs(int p) { return runs[p]; }
+
+	public long scanned(int p) { return scanned[p]; }
+
+	public long candidates(int p) { return candidates[p]; }
+
+	public long hits(int p) { return hits[p]; }
+
+	public long retries(int p) { return retries[p]; }
+
+	public void reset() {
+		for (long[] counts : new long[][] { runs, scanned, candidates, hits, retries })
+			Arrays.fill(counts, 0L);
+	}
+
+	/**
+	 * The pattern followed by a line for each instruction that was evaluated
+	 * pointing at it with its counts.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(new String(pattern, UTF_8)).append('\n');
+		for (int p = 0; p < pattern.length; p++) {
+			if (runs[p] == 0)
+				continue;
+			char[] indent = new char[p];
+			Arrays.fill(indent, ' ');
+			report.append(indent).append('^').append(p).append(" runs=").append(runs[p]);
+			if (pattern[p] == '~')
+				report.append(" scanned=").append(scanned[p])
+					.append(" candidates=").append(candidates[p])
+					.append(" hits=").append(hits[p]);
+			if (pattern[p] == '+')
+				report.append(" retries=").append(retries[p]);
+			report.append('\n');
+		}
+		return report.toString();
+	}
+
+	private long match(int p0, byte[] data, int d0, int dEnd, int pPlus, int maxOps) {
+		final byte[] pattern = this.pattern;
+		int pn = p0;
+		int dn = d0;
+		int dr = d0;
+		int pPlus0 = -1;
+		boolean plussed = pPlus >= 0;
+		int[] stack = null;
+		int sp = 0;
+		long pndn;
+		call: while (true) {
+			block: {
+				while (pn < pattern.length && dn < dEnd && maxOps-- != 0) {
+					if (!plussed)
+						dr = mismatchAt(dn);
+					int pOp = pn;
+					byte op  = pattern[pn++];
+					runs[pOp]++;
+					switch (op) {
+					case '\\':if (pattern[pn++] != data[dn++]) { pndn = pos(pOp, dr); break block; } break;
+					default : if (op != data[dn++])  { pndn = pos(pOp, dr); break block; } break;
+					case '?': dn++; break;
+					case '^': if (isWS(data[dn++]))  { pndn = pos(pOp, dr); break block; } break;
+					case '_': if (!isWS(data[dn++])) { pndn = pos(pOp, dr); break block; } break;
+					case '$': if (!isNL(data[dn++])) { pndn = pos(pOp, dr); break block; } break;
+					case '@': if ((0xFFFF & (data[dn++] & 0xDF) - 'A') >= 26) { pndn = pos(pOp, dr); break block; } break;
+					case '#': if ((0xFFFF & (data[dn++]) - '0') >= 10) { pndn = pos(pOp, dr); break block; } break;
+					case '}':
+					case ')':
+					case ']': if (pn != pPlus) { pndn = pos(pn, dn); break block; } break;
+					case '`': if (pOp > p0)    { pndn = pos(pn, dn); break block; } break;
+					case '(':
+					case '[':
+						if (!plussed || p0 != pOp) {
+							stack = push(stack, sp, GROUP, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pn; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = -1;
+							continue call;
+						}
+						break;
+					case '~': {
+						byte chr = pattern[pn];
+						int s;
+						if (chr == '+') {
+							s = dEnd;
+						} else if (isClass(chr)) {
+							s = ByteSearch.BYTES.indexOfClass(data, dn, dEnd, chr);
+						} else if (!isOp(chr)) {
+							s = skipToNext(chr, data, dn, dEnd);
+						} else {
+							long pmOffset = chr == '(' ? hopSite(pattern, pn) : pos(pn, 0);
+							int pm = (int)(pmOffset >> 32);
+							int pmEnd = chr == '(' ? literalEnd(pattern, pm) : pm;
+							int offset = pmEnd == pm ? 0 : (int)pmOffset;
+							int cand = pmEnd == pm ? dn : hop(pattern, pm, pmEnd, data, dn + offset, dEnd);
+							if (cand < dEnd) {
+								candidates[pOp]++;
+								stack = push(stack, sp, SCAN, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, cand, offset, pm, pmEnd);
+								sp += FRAME;
+								p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+								continue call;
+							}
+							s = dEnd;
+						}
+						scanned[pOp] += Math.min(s, dEnd) - dn;
+						if ((dn = s) >= dEnd) { pndn = pos(pn, dr); break block; }
+						break;
+					}
+					case '+':
+						if (pOp == pPlus) {
+							retries[pOp]++;
+							pn = p0;
+							dr = dn;
+						} else if (pOp > p0 && pattern[pPlus0] != '+') {
+							stack = push(stack, sp, PLUS, p0, pn, dn, dr, pPlus0, pPlus, maxOps, pOp, 0, 0, 0, 0);
+							sp += FRAME;
+							p0 = pPlus0; pn = p0; dr = dn; pPlus0 = -1; pPlus = pOp; plussed = true;
+							continue call;
+						}
+						break;
+					case '{':
+						if (data[dn] < 0 && isUtf8Set(pattern, pn)) {
+							int cp = codePoint(data, dn, dEnd);
+							if (!inSetUtf8(pattern, pn, cp & CODE_POINT)) { pndn = pos(pOp, dr); break block; }
+							dn += cp >>> 24;
+						} else if (!inSet(pattern, pn, data[dn++])) { pndn = pos(pOp, dr); break block; }
+						pn = plussed && p0 == pOp ? pPlus : skipBeyondSet(pattern, pOp);
+						break;
+					}
+					pPlus0 = pOp;
+				}
+				pndn = pos(pn, dn);
+			}
+			while (true) {
+				if (sp == 0)
+					return pndn;
+				sp -= FRAME;
+				int kind = stack[sp];
+				p0     = stack[sp+1];
+				pn     = stack[sp+2];
+				dn     = stack[sp+3];
+				dr     = stack[sp+4];
+				pPlus0 = stack[sp+5];
+				pPlus  = stack[sp+6];
+				maxOps = stack[sp+7];
+				int pOp = stack[sp+8];
+				plussed = pPlus >= 0;
+				if (kind == GROUP) {
+					if ((int)pndn < 0) {
+						if (pattern[pOp] == '(') {
+							if (plussed)
+								pndn = pos(pOp, dr);
+							continue;
+						}
+						pn = skipBeyondBlock(pattern, pn);
+					} else {
+						pn = (int)(pndn >> 32);
+						dn = (int)pndn;
+					}
+				} else if (kind == PLUS) {
+					dn = (int)pndn;
+					if (dn < 0)
+						dn = mismatchAt(dn);
+				} else { // SCAN started at dn
+					int cand = stack[sp+9];
+					int offset = stack[sp+10];
+					int pm = stack[sp+11];
+					int pmEnd = stack[sp+12];
+					if ((int)pndn < 0) {
+						if (++cand < dEnd && pmEnd > pm)
+							cand = hop(pattern, pm, pmEnd, data, cand, dEnd);
+						if (cand >= dEnd) {
+							scanned[pOp] += dEnd - dn;
+							pndn = pos(pn, dr);
+							continue;
+						}
+						candidates[pOp]++;
+						stack[sp+9] = cand;
+						sp += FRAME;
+						p0 = pn; dn = cand-offset; dr = dn; pPlus0 = -1; pPlus = -1; plussed = false; maxOps = 1;
+						continue call;
+					}
+					hits[pOp]++;
+					scanned[pOp] += cand-offset - dn;
+					dn = cand-offset;
+				}
+				pPlus0 = pOp;
+				continue call;
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The fields of a record matched by {@link LexFields#match(byte[], int, int, LexRecord)}
+ * as a flat array of start and end offsets into the data matched.
+ *
+ * Slot 0 is the whole match, slot g the group g (see
+ * {@link LexFields#slot(String)}). Accessors read the data in place so that
+ * numbers are parsed without creating objects. A record is reused for any
+ * number of matches, it refers to the data of the last one.
+ *
+ * Not thread-safe.
+ */
+public final class LexRecord {
+
+	private byte[] data;
+	private int[] slots;
+
+	LexRecord(int groups) {
+		this.slots = new int[groups+groups+2];
+	}
+
+	int[] reset(byte[] data, int groups) {
+		if (slots.length < groups+groups+2)
+			slots = new int[groups+groups+2];
+		this.data = data;
+		return slots;
+	}
+
+	/**
+	 * @return false, if the group of the slot did not match
+	 */
+	public boolean isSet(int slot) {
+		return slots[slot+slot] >= 0;
+	}
+
+	/**
+	 * @return data position of the slot's first byte, -1 if not set
+	 */
+	public int start(int slot) {
+		return slots[slot+slot];
+	}
+
+	/**
+	 * @return data position after the slot, -1 if not set
+	 */
+	public int end(int slot) {
+		return slots[slot+slot+1];
+	}
+
+	public int length(int slot) {
+		return isSet(slot) ? end(slot) - start(slot) : 0;
+	}
+
+	/**
+	 * @return the decimal number (with optional -) of the slot
+	 * @throws NumberFormatException
+	 *             if the slot is not set or not a number of the int range
+	 */
+	public int intAt(int slot) {
+		long n = longAt(slot);
+		if (n != (int) n)
+			throw new NumberFormatException("Not an int: "+n);
+		return (int) n;
+	}
+
+	/**
+	 * @return the decimal number (with optional -) of the slot
+	 * @throws NumberFormatException
+	 *             if the slot is not set or not a number of the long range
+	 */
+	public long longAt(int slot) {
+		int s = start(slot);
+		int e = end(slot);
+		if (s < 0 || s >= e)
+			throw new NumberFormatException("No number in slot "+slot);
+		boolean negative = data[s] == '-';
+		int i = negative ? s + 1 : s;
+		if (i >= e)
+			throw new NumberFormatException("Not a number: "+textAt(slot));
+		long n = 0;
+		for (; i < e; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Not a number: "+textAt(slot));
+			// accumulate negative to reach Long.MIN_VALUE
+			if (n < (Long.MIN_VALUE + digit) / 10)
+				throw new NumberFormatException("Out of range: "+textAt(slot));
+			n = n * 10 - digit;
+		}
+		if (!negative && n == Long.MIN_VALUE)
+			throw new NumberFormatException("Out of range: "+textAt(slot));
+		return negative ? n : -n;
+	}
+
+	/**
+	 * @return true, if the slot is set and its bytes equal the literal
+	 */
+	public boolean equals(int slot, byte[] literal) {
+		int s = start(slot);
+		if (s < 0 || end(slot) - s != literal.length)
+			return false;
+		for (int i = 0; i < literal.length; i++)
+			if (data[s+i] != literal[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the slot's bytes as UTF-8 text (creates a String), null if not
+	 *         set
+	 */
+	public String textAt(int slot) {
+		return isSet(slot) ? new String(data, start(slot), length(slot), UTF_8) : null;
+	}
+}
@@ -0,0 +1,178 @@
+package se.jbee.lex;
+
+import static java.util.Arrays.copyOf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Replaces the matches of a pattern while copying data to an output.
+ *
+ * Starting at from each attempt continues at the end of the previous match.
+ * Where an attempt does not match (or matches empty or is cut off by to
+ * before the pattern ended, see {@link CompiledLex#isComplete(long)}) the
+ * search continues
+ * after the position the scan at the start of the pattern stopped at, or after
+ * the attempt's start if the pattern does not start with a scan, until to is
+ * reached. A match of a pattern starting with a scan starts where the scan
+ * stopped, the bytes skipped are kept.
+ *
+ * The replacement is given as bytes where $0 refers to the match, $1 to $9 to
+ * the groups of the pattern (see {@link CompiledLex#match(byte[], int, int, int[])})
+ * and $$ is a $. A group that did not match is replaced by nothing.
+ *
+ * Output is written in one pass: the bytes between matches are copied from
+ * data, the replacement is composed from its parts and the data of the groups.
+ * The result is never held as a whole (unless the output is a buffer).
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class LexReplace {
+
+	/**
+	 * Where bytes are written to
+	 */
+	private interface Out {
+
+		void write(byte[] src, int off, int len) throws IOException;
+	}
+
+	private final CompiledLex lex;
+	/**
+	 * the replacement without the references
+	 */
+	private final byte[] text;
+	/**
+	 * For each part of the replacement: end of its text and the group referred
+	 * to after that, -1 for none
+	 */
+	private final int[] parts;
+
+	public LexReplace(byte[] pattern, byte[] replacement) {
+		this.lex = Lex.compile(pattern);
+		byte[] text = new byte[replacement.length];
+		int[] parts = new int[8];
+		int len = 0;
+		int count = 0;
+		for (int i = 0; i < replacement.length; i++) {
+			byte b = replacement[i];
+			if (b == '$' && i + 1 < replacement.length) {
+				byte ref = replacement[++i];
+				if (ref == '$') {
+					text[len++] = '$';
+				} else {
+					int group = ref - '0';
+					if (group < 0 || group > 9 || group > lex.groups())
+						throw new IllegalArgumentException("No group $"+(char) ref+" in pattern with "+lex.groups()+" groups");
+					if (count + 2 > parts.length)
+						parts = copyOf(parts, parts.length * 2);
+					parts[count++] = len;
+					parts[count++] = group;
+				}
+			} else
+				text[len++] = b;
+		}
+		parts = copyOf(parts, count + 2);
+		parts[count++] = len;
+		parts[count] = -1;
+		this.text = copyOf(text, len);
+		this.parts = parts;
+	}
+
+	/**
+	 * Writes data[from..to) with all matches replaced to out. Small writes are
+	 * collected in a buffer that is written to out when full and at the end,
+	 * out itself is not flushed.
+	 *
+	 * @return number of replaced matches
+	 */
+	public int replaceAll(byte[] data, int from, int to, OutputStream out) throws IOException {
+		final byte[] buf = new byte[8192];
+		final int[] len = new int[1];
+		int c = replaceAll(data, from, to, (src, off, n) -> {
+			if (len[0] + n > buf.length) {
+				out.write(buf, 0, len[0]);
+				len[0] = 0;
+			}
+			if (n > buf.length) {
+				out.write(src, off, n);
+			} else {
+				System.arraycopy(src, off, buf, len[0], n);
+				len[0] += n;
+			}
+		});
+		out.write(buf, 0, len[0]);
+		return c;
+	}
+
+	/**
+	 * Puts data[from..to) with all matches replaced into out starting at its
+	 * position.
+	 *
+	 * @return out or, when it became full, a larger buffer of the same kind
+	 *         (heap or direct) with the bytes of out followed by the rest. The
+	 *         position is after the last byte put.
+	 */
+	public ByteBuffer replaceAll(byte[] data, int from, int to, ByteBuffer out) {
+		final ByteBuffer[] buf = { out };
+		try {
+			replaceAll(data, from, to, (src, off, n) -> {
+				ByteBuffer b = buf[0];
+				if (b.remaining() < n) {
+					int capacity = Math.max(b.capacity() * 2, b.position() + n);
+					ByteBuffer grown = b.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+					b.flip();
+					buf[0] = b = grown.put(b);
+				}
+				b.put(src, off, n);
+			});
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // buffers do not throw
+		}
+		return buf[0];
+	}
+
+	private int replaceAll(byte[] data, int from, int to, Out out) throws IOException {
+		int[] slots = new int[lex.groups()+lex.groups()+2];
+		int c = 0;
+		int d0 = from;
+		int copied = from;
+		while (d0 < to) {
+			long pndn = lex.match(data, d0, to, slots);
+			int dn = (int)pndn;
+			if (dn <= d0 || !lex.isComplete(pndn)) { // try again after the failed candidate
+				int s = lex.leadingScanEnd(data, d0, to);
+				d0 = (s < 0 ? d0 : s) + 1;
+				continue;
+			}
+			int start = slots[0];
+			if (start > copied)
+				out.write(data, copied, start - copied);
+			replace(data, slots, out);
+			c++;
+			copied = dn;
+			d0 = dn;
+		}
+		if (to > copied)
+			out.write(data, copied, to - copied);
+		return c;
+	}
+
+	private void replace(byte[] data, int[] slots, Out out) throws IOException {
+		int t0 = 0;
+		for (int k = 0; k < parts.length; k += 2) {
+			int tEnd = parts[k];
+			if (tEnd > t0)
+				out.write(text, t0, tEnd - t0);
+			t0 = tEnd;
+			int group = parts[k+1];
+			if (group >= 0) {
+				int s = slots[2*group];
+				int e = slots[2*group+1];
+				if (s >= 0 && e > s)
+					out.write(data, s, e - s);
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package se.jbee.lex;
+
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.fill;
+
+import java.util.ArrayDeque;
+
+/**
+ * Searches for many patterns in one pass over the data.
+ *
+ * For each pattern the result is the same as the one of
+ * {@link CompiledLex#findAll(byte[], int, int, se.jbee.lex.Lex.MatchSink)}:
+ * starting at from each match continues at the end of the previous one until
+ * the first mismatch or empty match.
+ *
+ * Patterns starting with a scan to a literal, like ~(ERROR )#+, do not scan
+ * on their own. Instead the literals of all patterns are searched at once by
+ * an Aho-Corasick automaton. Where the literal of a pattern occurs its scan
+ * would stop, so the match of the pattern is continued there. Other patterns
+ * are searched one after another after the pass.
+ *
+ * Matches of a pattern are reported in order. Matches of patterns with a
+ * literal are reported in order of where their literal ends, those of other
+ * patterns follow in order of the patterns.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class LexSet {
+
+	@FunctionalInterface
+	public interface MatchSink {
+
+		void match(int pattern, int start, int end);
+	}
+
+	private final CompiledLex[] lexes;
+	/**
+	 * For each pattern the length of its literal, 0 if it has none
+	 */
+	private final int[] literalLen;
+	/**
+	 * The patterns that have no literal
+	 */
+	private final int[] others;
+
+	/*
+	 * The automaton: bytes are mapped to classes, bytes not in any literal all
+	 * are class 0. The state after a byte is next[state * classes + class].
+	 * State 0 is the start. The patterns whose literal ends in a state are
+	 * out[outAt[state]..outAt[state+1]).
+	 */
+	private final int[] classOf = new int[256];
+	private final int classes;
+	private final int[] next;
+	private final int[] outAt;
+	private final int[] out;
+
+	public LexSet(byte[]... patterns) {
+		int n = patterns.length;
+		this.lexes = new CompiledLex[n];
+		this.literalLen = new int[n];
+		int[] others = new int[n];
+		int otherCount = 0;
+		byte[][] literals = new byte[n][];
+		int classes = 1;
+		int states = 1;
+		for (int i = 0; i < n; i++) {
+			CompiledLex lex = Lex.compile(patterns[i]);
+			lexes[i] = lex;
+			Literal literal = lex.leadingLiteral();
+			if (literal == null) {
+				others[otherCount++] = i;
+			} else {
+				literals[i] = literal.bytes;
+				literalLen[i] = literal.bytes.length;
+				states += literal.bytes.length;
+				for (byte b : literal.bytes)
+					if (classOf[b & 0xFF] == 0)
+						classOf[b & 0xFF] = classes++;
+			}
+		}
+		this.others = copyOf(others, otherCount);
+		this.classes = classes;
+		// trie
+		int[] next = new int[states * classes];
+		fill(next, -1);
+		int[][] ends = new int[states][];
+		int count = 1;
+		for (int i = 0; i < n; i++) {
+			if (literals[i] == null)
+				continue;
+			int state = 0;
+			for (byte b : literals[i]) {
+				int t = state * classes + classOf[b & 0xFF];
+				if (next[t] < 0)
+					next[t] = count++;
+				state = next[t];
+			}
+			ends[state] = append(ends[state], i);
+		}
+		// failure links (breadth first) turn the trie into the automaton
+		int[] fail = new int[count];
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		for (int c = 0; c < classes; c++) {
+			int s = next[c];
+			if (s < 0) {
+				next[c] = 0;
+			} else
+				queue.add(s);
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			int[] failEnds = ends[fail[state]];
+			if (failEnds != null)
+				for (int i : failEnds)
+					ends[state] = append(ends[state], i);
+			for (int c = 0; c < classes; c++) {
+				int t = state * classes + c;
+				int s = next[t];
+				int f = next[fail[state] * classes + c];
+				if (s < 0) {
+					next[t] = f;
+				} else {
+					fail[s] = f;
+					queue.add(s);
+				}
+			}
+		}
+		this.next = copyOf(next, count * classes);
+		this.outAt = new int[count+1];
+		int total = 0;
+		for (int s = 0; s < count; s++) {
+			outAt[s] = total;
+			total += ends[s] == null ? 0 : ends[s].length;
+		}
+		outAt[count] = total;
+		this.out = new int[total];
+		for (int s = 0; s < count; s++)
+			if (ends[s] != null)
+				System.arraycopy(ends[s], 0, out, outAt[s], ends[s].length);
+	}
+
+	private static int[] append(int[] ends, int i) {
+		if (ends == null)
+			return new int[] { i };
+		ends = copyOf(ends, ends.length+1);
+		ends[ends.length-1] = i;
+		return ends;
+	}
+
+	public int size() {
+		return lexes.length;
+	}
+
+	/**
+	 * @return number of matches passed to the sink
+	 */
+	public int findAll(byte[] data, int from, int to, MatchSink sink) {
+		int c = 0;
+		// position each pattern continues at, MAX_VALUE when its search ended
+		int[] d0 = new int[lexes.length];
+		fill(d0, from);
+		final int classes = this.classes;
+		int state = 0;
+		for (int dn = from; dn < to; dn++) {
+			state = next[state * classes + classOf[data[dn] & 0xFF]];
+			for (int k = outAt[state], kEnd = outAt[state+1]; k < kEnd; k++) {
+				int i = out[k];
+				CompiledLex lex = lexes[i];
+				int s = dn - literalLen[i] + 1 - lex.leadingOffset();
+				if (s >= d0[i] && lex.leadingScanStopsAt(data, s, to)) {
+					int end = (int)lex.matchAfterLeadingScan(data, s, to);
+					if (end <= d0[i]) {
+						d0[i] = Integer.MAX_VALUE;
+					} else {
+						sink.match(i, s, end);
+						c++;
+						d0[i] = end;
+					}
+				}
+			}
+		}
+		for (int i : others) {
+			final int pattern = i;
+			c += lexes[i].findAll(data, from, to, (start, end) -> sink.match(pattern, start, end));
+		}
+		return c;
+	}
+}
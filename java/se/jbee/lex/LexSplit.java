@@ -0,0 +1,99 @@
+package se.jbee.lex;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the fields of data separated by a delimiter pattern as defined by
+ * {@link Lex#split(byte[], byte[], int, int, int[])}.
+ *
+ * Fields are not copied. {@link #next()} returns a buffer wrapping the data
+ * with its position and limit set to the field, it is valid until the next
+ * call. The buffer is reused for all fields of the same data array, a new one
+ * is created for the first field of each other array. To split many records
+ * the same instance is {@link #reset(byte[], int, int)} for each of them.
+ *
+ * Without any allocation the fields are iterated by {@link #advance()} and
+ * their positions in data read with {@link #start()} and {@link #end()}.
+ *
+ * Instances are not thread-safe.
+ */
+public final class LexSplit implements Iterator<ByteBuffer> {
+
+	private final byte[] pattern;
+	private byte[] data;
+	private ByteBuffer field;
+	private int next;
+	private int to;
+	private int start;
+	private int end;
+	private boolean done = true;
+
+	public LexSplit(byte[] pattern) {
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Starts splitting data between from and to.
+	 *
+	 * @return this for chaining
+	 */
+	public LexSplit reset(byte[] data, int from, int to) {
+		if (data != this.data) {
+			this.data = data;
+			this.field = null; // wrapped when needed
+		}
+		this.next = from;
+		this.to = to;
+		this.start = -1;
+		this.end = -1;
+		this.done = false;
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !done;
+	}
+
+	@Override
+	public ByteBuffer next() {
+		advance();
+		if (field == null)
+			field = ByteBuffer.wrap(data);
+		field.limit(end);
+		field.position(start);
+		return field;
+	}
+
+	/**
+	 * Moves to the next field like {@link #next()} but only updates
+	 * {@link #start()} and {@link #end()}.
+	 */
+	public void advance() {
+		if (done)
+			throw new NoSuchElementException();
+		long delimiter = Lex.delimiter(pattern, data, next, to);
+		start = next;
+		end = (int)(delimiter >> 32);
+		if (end >= to) {
+			done = true;
+		} else
+			next = (int)delimiter;
+	}
+
+	/**
+	 * @return data position of the current field's first byte
+	 */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * @return data position after the current field
+	 */
+	public int end() {
+		return end;
+	}
+}
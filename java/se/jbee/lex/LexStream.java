@@ -0,0 +1,170 @@
+package se.jbee.lex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Searches a stream of data chunk by chunk holding at most a window of bytes.
+ *
+ * Matching starts at the beginning of the stream and continues at the end of
+ * each match just like a loop over {@link Lex#match(byte[], int, byte[], int)}
+ * does. It ends with the first mismatch or a match that is empty.
+ *
+ * An attempt whose outcome might depend on bytes not yet seen (anything in it
+ * ran up to the end of the buffered bytes) is repeated when more bytes arrived.
+ * Bytes before the current attempt are dropped. When the pattern starts with a
+ * scan the bytes the scan has passed are dropped as well and the attempt
+ * continues the scan from there, so any number of bytes can be skipped by it.
+ * An attempt that still needs more bytes when the window is full fails with an
+ * {@link IllegalStateException}, so the window must be larger than the data
+ * looked at by any attempt from where its leading scan stopped.
+ *
+ * Instances are not thread-safe.
+ */
+public final class LexStream {
+
+	/**
+	 * Receives matches with absolute positions in the stream.
+	 */
+	public interface Found {
+
+		/**
+		 * @param start
+		 *            stream position where the successful attempt started
+		 * @param end
+		 *            stream position after the match
+		 */
+		void found(long start, long end);
+	}
+
+	private final byte[] pattern;
+	private final CompiledLex lex;
+	private final byte[] window;
+	private long offset; // stream position of window[0]
+	private long from;   // stream position where the current attempt started
+	private int start;   // window position where the current attempt continues
+	private int end;     // window position after the last buffered byte
+	private boolean done;
+	private final boolean[] ended = new boolean[1]; // attempt ran into end
+	private long count;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the window is too small or the pattern does not compile
+	 */
+	public LexStream(byte[] pattern, int window) {
+		if (window < 2)
+			throw new IllegalArgumentException("window must be at least 2 but was: "+window);
+		this.pattern = pattern;
+		this.lex = Lex.compile(pattern);
+		this.window = new byte[window];
+	}
+
+	/**
+	 * @return true when the search ended, no more bytes are needed
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return number of matches found so far
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * @return stream position where the next attempt starts
+	 */
+	public long position() {
+		return from;
+	}
+
+	/**
+	 * Adds the next chunk of the stream and reports the matches that are
+	 * certain with these bytes.
+	 *
+	 * @return false when the search ended
+	 * @throws IllegalStateException
+	 *             when an attempt needs more bytes than the window holds
+	 */
+	public boolean feed(byte[] chunk, int off, int len, Found found) {
+		while (len > 0 && !done) {
+			compact();
+			int n = Math.min(len, window.length - end);
+			System.arraycopy(chunk, off, window, end, n);
+			end += n;
+			off += n;
+			len -= n;
+			drain(false, found);
+		}
+		return !done;
+	}
+
+	/**
+	 * Marks the end of the stream and reports the remaining matches.
+	 */
+	public void end(Found found) {
+		drain(true, found);
+		done = true;
+	}
+
+	/**
+	 * Feeds all bytes from the channel until the end of the stream or the search.
+	 *
+	 * @return number of matches found
+	 */
+	public long search(ReadableByteChannel in, Found found) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(window);
+		while (!done) {
+			compact();
+			buf.limit(window.length).position(end);
+			int n = in.read(buf);
+			if (n < 0) {
+				end(found);
+			} else {
+				end += n;
+				drain(false, found);
+			}
+		}
+		return count;
+	}
+
+	public long search(InputStream in, Found found) throws IOException {
+		return search(Channels.newChannel(in), found);
+	}
+
+	private void drain(boolean last, Found found) {
+		while (!done && start < end) {
+			long pndn = Lex.match(pattern, window, start, end, ended);
+			int dn = (int)pndn;
+			if (!last && ended[0]) {
+				start = Math.max(start, lex.leadingScanResume(window, start, end)); // passed bytes are not needed again
+				if (start > 0 || end < window.length)
+					return; // wait for more bytes
+				throw new IllegalStateException("Attempt at "+from+" does not fit into window of "+window.length+" bytes");
+			}
+			if (dn <= start) {
+				done = true;
+			} else {
+				count++;
+				found.found(from, offset + dn);
+				start = dn;
+				from = offset + dn;
+			}
+		}
+	}
+
+	private void compact() {
+		if (start == 0)
+			return;
+		System.arraycopy(window, start, window, 0, end - start);
+		offset += start;
+		end -= start;
+		start = 0;
+	}
+}
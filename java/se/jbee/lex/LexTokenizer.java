@@ -0,0 +1,167 @@
+package se.jbee.lex;
+
+import static java.util.Arrays.copyOf;
+
+/**
+ * Splits data into tokens described by a table of (token id, pattern).
+ *
+ * At each position the token is that of the first pattern in the table that
+ * completely matches (see {@link CompiledLex#matches(byte[], int, int)}) and
+ * consumes at least one byte. The next token starts where it ended. Only the
+ * patterns that can start with the byte at the position are tried (see
+ * {@link LexInfo#canStartWith(byte)}), these are looked up in a table of the
+ * 256 byte values.
+ *
+ * Tokens are written to the parallel arrays of a {@link Tokens} which can be
+ * reused for any number of calls, no objects are created per token.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class LexTokenizer {
+
+	/**
+	 * The tokens found by {@link LexTokenizer#tokenize(byte[], int, int, Tokens)}
+	 * as id, start and end of the i-th token in parallel arrays. The arrays
+	 * grow when they are full and are kept for the next use.
+	 *
+	 * Not thread-safe.
+	 */
+	public static final class Tokens {
+
+		private int[] ids;
+		private int[] starts;
+		private int[] ends;
+		private int count;
+
+		public Tokens() {
+			this(64);
+		}
+
+		public Tokens(int capacity) {
+			capacity = Math.max(1, capacity);
+			this.ids = new int[capacity];
+			this.starts = new int[capacity];
+			this.ends = new int[capacity];
+		}
+
+		void add(int id, int start, int end) {
+			if (count == ids.length) {
+				int capacity = count + (count >> 1) + 1;
+				ids = copyOf(ids, capacity);
+				starts = copyOf(starts, capacity);
+				ends = copyOf(ends, capacity);
+			}
+			ids[count] = id;
+			starts[count] = start;
+			ends[count++] = end;
+		}
+
+		public int count() {
+			return count;
+		}
+
+		public int id(int i) {
+			return ids[i];
+		}
+
+		public int start(int i) {
+			return starts[i];
+		}
+
+		public int end(int i) {
+			return ends[i];
+		}
+
+		/**
+		 * @return the ids array, valid up to {@link #count()}
+		 */
+		public int[] ids() {
+			return ids;
+		}
+
+		/**
+		 * @return the starts array, valid up to {@link #count()}
+		 */
+		public int[] starts() {
+			return starts;
+		}
+
+		/**
+		 * @return the ends array, valid up to {@link #count()}
+		 */
+		public int[] ends() {
+			return ends;
+		}
+
+		public void clear() {
+			count = 0;
+		}
+	}
+
+	private final int[] ids;
+	private final CompiledLex[] lexes;
+	/**
+	 * The patterns that can start with byte b are
+	 * candidates[at[b]..at[b+1]) in order of the table
+	 */
+	private final int[] at = new int[257];
+	private final int[] candidates;
+
+	/**
+	 * @param ids
+	 *            the token id for each pattern
+	 * @param patterns
+	 *            in order of precedence
+	 */
+	public LexTokenizer(int[] ids, byte[]... patterns) {
+		if (ids.length != patterns.length)
+			throw new IllegalArgumentException("Expected an id for each of the "+patterns.length+" patterns but got: "+ids.length);
+		int n = patterns.length;
+		this.ids = ids.clone();
+		this.lexes = new CompiledLex[n];
+		for (int i = 0; i < n; i++)
+			lexes[i] = Lex.compile(patterns[i]);
+		int[] candidates = new int[256 * n];
+		int count = 0;
+		for (int b = 0; b < 256; b++) {
+			at[b] = count;
+			for (int i = 0; i < n; i++)
+				if (lexes[i].info().canStartWith((byte) b))
+					candidates[count++] = i;
+		}
+		at[256] = count;
+		this.candidates = copyOf(candidates, count);
+	}
+
+	public int size() {
+		return lexes.length;
+	}
+
+	/**
+	 * Replaces the tokens with those of data[from..to).
+	 *
+	 * @return the position tokenizing stopped, to if all data became tokens,
+	 *         otherwise the position no pattern matched at
+	 */
+	public int tokenize(byte[] data, int from, int to, Tokens tokens) {
+		tokens.clear();
+		int dn = from;
+		while (dn < to) {
+			int b = data[dn] & 0xFF;
+			int end = -1;
+			for (int k = at[b], kEnd = at[b+1]; k < kEnd && end < 0; k++) {
+				int i = candidates[k];
+				long pndn = lexes[i].match(data, dn, to);
+				int dEnd = (int)pndn;
+				if (dEnd > dn && lexes[i].isComplete(pndn)) {
+					tokens.add(ids[i], dn, dEnd);
+					end = dEnd;
+				}
+			}
+			if (end < 0)
+				return dn;
+			dn = end;
+		}
+		return dn;
+	}
+}
@@ -0,0 +1,149 @@
+package se.jbee.lex;
+
+import static se.jbee.lex.ByteSearch.BYTES;
+
+import java.util.Arrays;
+
+/**
+ * A byte sequence prepared to be searched for in data. All 256 byte values are
+ * literal bytes, ASCII letters optionally match in both cases.
+ *
+ * Short literals are found by the {@link ByteSearch} pair filter looking for
+ * positions with the first and the last byte at the right distance and
+ * comparing the bytes in between there. Long literals use Horspool's algorithm
+ * with a table of how far to shift for each byte value that is seen at the
+ * position of the literal's last byte. As the shift then is close to the
+ * literal length on average that skips more data than the filter can test.
+ * Literals matching ASCII letters in both cases always use Horspool's algorithm
+ * as the shift table simply has an entry for both cases.
+ */
+final class Literal {
+
+	/**
+	 * Length from which on the Horspool shift table is used
+	 */
+	static final int HORSPOOL_MIN = 16;
+
+	final byte[] bytes;
+	private final int[] shift;
+	/**
+	 * true, if ASCII letters match in both cases (bytes then are lower case)
+	 */
+	private final boolean ignoreCase;
+
+	Literal(byte[] bytes) {
+		this(bytes, false);
+	}
+
+	/**
+	 * @param ignoreCase
+	 *            true to match ASCII letters in both cases, such literals always
+	 *            use Horspool's algorithm with a table folding the cases
+	 */
+	Literal(byte[] bytes, boolean ignoreCase) {
+		this.ignoreCase = ignoreCase && hasLetter(bytes);
+		this.bytes = this.ignoreCase ? lowerCase(bytes) : bytes;
+		this.shift = bytes.length < HORSPOOL_MIN && !this.ignoreCase ? null : shift(this.bytes, this.ignoreCase);
+	}
+
+	private static int[] shift(byte[] bytes, boolean ignoreCase) {
+		int len = bytes.length;
+		int[] shift = new int[256];
+		Arrays.fill(shift, len);
+		for (int i = 0; i < len-1; i++) {
+			shift[bytes[i] & 0xFF] = len-1-i;
+			if (ignoreCase && isLetter(bytes[i]))
+				shift[bytes[i] & 0xDF] = len-1-i;
+		}
+		return shift;
+	}
+
+	static boolean isLetter(byte b) {
+		return (0xFFFF & (b & 0xDF) - 'A') < 26;
+	}
+
+	static byte lowerCase(byte b) {
+		return isLetter(b) ? (byte) (b | 0x20) : b;
+	}
+
+	private static boolean hasLetter(byte[] bytes) {
+		for (byte b : bytes)
+			if (isLetter(b))
+				return true;
+		return false;
+	}
+
+	private static byte[] lowerCase(byte[] bytes) {
+		byte[] lower = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++)
+			lower[i] = lowerCase(bytes[i]);
+		return lower;
+	}
+
+	/**
+	 * @return first position of the literal in [from,to) or to
+	 */
+	int indexOf(byte[] data, int from, int to) {
+		return shift == null
+				? indexOf(bytes, data, from, to)
+				: ignoreCase ? horspoolIgnoreCase(data, from, to) : horspool(data, from, to);
+	}
+
+	private int horspool(byte[] data, int from, int to) {
+		final int last = bytes.length-1;
+		final byte lastByte = bytes[last];
+		int dn = from;
+		while (dn + last < to) {
+			byte b = data[dn + last];
+			if (b == lastByte && equalsAt(bytes, data, dn, last))
+				return dn;
+			dn += shift[b & 0xFF];
+		}
+		return to;
+	}
+
+	private int horspoolIgnoreCase(byte[] data, int from, int to) {
+		final int last = bytes.length-1;
+		final byte lastByte = bytes[last];
+		int dn = from;
+		while (dn + last < to) {
+			byte b = data[dn + last];
+			if (lowerCase(b) == lastByte && equalsIgnoreCaseAt(dn, data, last))
+				return dn;
+			dn += shift[b & 0xFF];
+		}
+		return to;
+	}
+
+	private boolean equalsIgnoreCaseAt(int dn, byte[] data, int n) {
+		int c = 0;
+		while (c < n && lowerCase(data[dn+c]) == bytes[c]) c++;
+		return c >= n;
+	}
+
+	/**
+	 * @return first position of the literal in [from,to) or to
+	 */
+	static int indexOf(byte[] literal, byte[] data, int from, int to) {
+		final int len = literal.length;
+		if (len <= 1)
+			return len == 0 ? Math.min(from, to) : BYTES.indexOf(data, from, to, literal[0]);
+		final int dLast = to-len+1; // last position the literal can start at
+		int dn = from;
+		while ((dn = BYTES.indexOf(data, dn, dLast, literal[0], literal[len-1], len-1)) < dLast) {
+			if (equalsAt(literal, data, dn, len-1))
+				return dn;
+			dn++;
+		}
+		return to;
+	}
+
+	/**
+	 * @return true, if the first n bytes of the literal occur in data at dn
+	 */
+	private static boolean equalsAt(byte[] literal, byte[] data, int dn, int n) {
+		int c = 0;
+		while (c < n && data[dn+c] == literal[c]) c++;
+		return c >= n;
+	}
+}
@@ -0,0 +1,101 @@
+package se.jbee.lex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ByteSearch} reading 8 bytes at a time as a long and testing them
+ * all at once using SIMD within a register (SWAR).
+ *
+ * A byte is found by XOR-ing the word with the byte repeated 8 times and
+ * looking for a zero byte. {@link #zeros(long)} sets the high bit of each
+ * byte that is zero (exactly, no false positives) so that with little endian
+ * order the number of trailing zero bits divided by 8 is the index of the
+ * first byte found.
+ *
+ * Covers byte and pair search and the classes _ ^ $. Other classes and tails
+ * shorter than a word are done by the byte loops.
+ */
+class SwarByteSearch extends ByteSearch {
+
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+	private static final long HIGH = 0x8080808080808080L;
+
+	private static final long SP = ' ' * ONES;
+	private static final long HT = '\t' * ONES;
+	private static final long LF = '\n' * ONES;
+	private static final long CR = '\r' * ONES;
+
+	@Override
+	int indexOf(byte[] data, int from, int to, byte b) {
+		final long pattern = (b & 0xFF) * ONES;
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long found = zeros((long) LONG.get(data, i) ^ pattern);
+			if (found != 0L)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		return super.indexOf(data, i, to, b);
+	}
+
+	@Override
+	int indexOf(byte[] data, int from, int to, byte first, byte last, int dist) {
+		final long f = (first & 0xFF) * ONES;
+		final long l = (last & 0xFF) * ONES;
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long found = zeros((long) LONG.get(data, i) ^ f) & zeros((long) LONG.get(data, i + dist) ^ l);
+			if (found != 0L)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		return super.indexOf(data, i, to, first, last, dist);
+	}
+
+	@Override
+	int indexOfClass(byte[] data, int from, int to, byte op) {
+		if (op != '_' && op != '^' && op != '$')
+			return super.indexOfClass(data, from, to, op);
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long found = inClass(op, (long) LONG.get(data, i));
+			if (found != 0L)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		return super.indexOfClass(data, i, to, op);
+	}
+
+	@Override
+	int skipClass(byte[] data, int from, int to, byte op) {
+		if (op != '_' && op != '^' && op != '$')
+			return super.skipClass(data, from, to, op);
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long found = ~inClass(op, (long) LONG.get(data, i)) & HIGH;
+			if (found != 0L)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		return super.skipClass(data, i, to, op);
+	}
+
+	/**
+	 * @return high bit set for each byte of the word in the class
+	 */
+	private static long inClass(byte op, long word) {
+		long nl = zeros(word ^ LF) | zeros(word ^ CR);
+		if (op == '$')
+			return nl;
+		long ws = nl | zeros(word ^ SP) | zeros(word ^ HT);
+		return op == '_' ? ws : ~ws & HIGH;
+	}
+
+	/**
+	 * @return high bit set for each byte of the word that is zero
+	 */
+	static long zeros(long word) {
+		return ~(((word & LOW7) + LOW7) | word | LOW7);
+	}
+}
@@ -0,0 +1,84 @@
+package se.jbee.lex;
+
+import static java.util.Arrays.fill;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestByteSearch {
+
+	private static final ByteSearch SCALAR = new ByteSearch();
+	private static final ByteSearch SWAR = new SwarByteSearch();
+	private static final byte[] CLASSES = { '#', '@', '_', '^', '$', '?' };
+
+	@Test
+	public void searchesLikeScalar() {
+		assertSearchesLikeScalar(ByteSearch.BYTES);
+	}
+
+	@Test
+	public void swarSearchesLikeScalar() {
+		assertSearchesLikeScalar(SWAR);
+	}
+
+	@Test
+	public void swarFindsAllBytes() {
+		byte[] data = new byte[24];
+		for (int b = 0; b < 256; b++) {
+			for (int i = 0; i < data.length; i++) {
+				fill(data, (byte) (b + 1));
+				data[i] = (byte) b;
+				assertEquals(i, SWAR.indexOf(data, 0, data.length, (byte) b));
+			}
+		}
+	}
+
+	@Test
+	public void classesMatchAllBytesLikeSets() {
+		byte[] data = new byte[1];
+		for (byte op : CLASSES) {
+			byte[] pattern = { op };
+			for (int b = 0; b < 256; b++) {
+				data[0] = (byte) b;
+				assertEquals((int) Lex.match(pattern, 0, data, 0) == 1, ByteSearch.inClass(op, data[0]));
+			}
+		}
+	}
+
+	@Test
+	public void skipsLongRuns() {
+		byte[] data = new byte[1000];
+		fill(data, (byte) '5');
+		data[997] = 'x';
+		assertEquals(997, ByteSearch.BYTES.skipClass(data, 0, data.length, (byte) '#'));
+		assertEquals(997, ByteSearch.BYTES.indexOfClass(data, 0, data.length, (byte) '@'));
+		assertEquals(1000, ByteSearch.BYTES.indexOf(data, 0, data.length, (byte) 'y'));
+	}
+
+	private static void assertSearchesLikeScalar(ByteSearch search) {
+		byte[] data = data(300);
+		for (int from = 0; from < 80; from += 3) {
+			for (int to : new int[] { from, from + 1, from + 17, from + 64, data.length - 10 }) {
+				for (byte b : new byte[] { 'a', '7', ' ', '\n', (byte) 0xC3, 'z' })
+					assertEquals(SCALAR.indexOf(data, from, to, b), search.indexOf(data, from, to, b));
+				for (byte op : CLASSES) {
+					assertEquals(SCALAR.indexOfClass(data, from, to, op), search.indexOfClass(data, from, to, op));
+					assertEquals(SCALAR.skipClass(data, from, to, op), search.skipClass(data, from, to, op));
+				}
+				assertEquals(SCALAR.indexOf(data, from, to, (byte) 'a', (byte) 'b', 3),
+						search.indexOf(data, from, to, (byte) 'a', (byte) 'b', 3));
+			}
+		}
+	}
+
+	private static byte[] data(int len) {
+		Random rnd = new Random(7);
+		byte[] alphabet = "ab7 \t\n\rzAZ09`{/:".getBytes();
+		byte[] data = new byte[len];
+		for (int i = 0; i < len; i++)
+			data[i] = rnd.nextInt(10) == 0 ? (byte) rnd.nextInt(256) : alphabet[rnd.nextInt(alphabet.length)];
+		return data;
+	}
+}
@@ -0,0 +1,175 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestCompiledLex {
+
+	@Test
+	public void setsMatchAllBytesLikeInterpreter() {
+		String[] patterns = { "#", "@", "_", "^", "$", "?", "{a-z}", "{^a-z}", "{?}", "{?a-c}", "{^?}", "{@@-@ }",
+				"{\\a-\\z}", "{+-?}", "{-}", "{^^}", "{^b-fgx-y }", "{@I@J}" };
+		byte[] data = new byte[1];
+		for (String pattern : patterns) {
+			byte[] p = bytes(pattern);
+			CompiledLex lex = Lex.compile(p);
+			for (int b = 0; b < 256; b++) {
+				data[0] = (byte) b;
+				assertEquals(pattern+" "+b, Lex.match(p, 0, data, 0), lex.match(data, 0));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsUnclosedSetsAndBlocks() {
+		for (String pattern : new String[] { "{a", "{a-", "{\\", "{a\\}", "{@}", "a[{b", "(a", "[a#", "((a)", "~(a" }) {
+			String msg = message(pattern);
+			assertTrue(pattern+" "+msg, msg != null && msg.startsWith("Unclosed"));
+		}
+		assertEquals("Unclosed set at 1: `{^", message("`{^"));
+		assertEquals("Unclosed block at 4: ([a](b", message("([a](b"));
+		assertNull(message("(a}")); // } ends a block like ) or ]
+	}
+
+	@Test
+	public void rejectsEscapeAtEnd() {
+		assertEquals("Nothing escaped at 1: a\\", message("a\\"));
+		assertEquals("Nothing escaped at 4: (a\\)\\", message("(a\\)\\"));
+		assertNull(message("a\\\\"));
+	}
+
+	private static String message(String pattern) {
+		try {
+			Lex.compile(bytes(pattern));
+			return null;
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+
+	@Test
+	public void setsPlusMatchLikeInterpreter() {
+		byte[] data = bytes("ab12 \t\nxY_-+{}[]()äö€ end");
+		String[] patterns = { "{a-z}+", "#+", "^+", "_+", "{^ }+", "{?a-z}+", "[{a-z}+#+]+_", "(@+)+", "~(#_)", "~$" };
+		for (String pattern : patterns) {
+			byte[] p = bytes(pattern);
+			CompiledLex lex = Lex.compile(p);
+			for (int d0 = 0; d0 < data.length; d0++)
+				assertEquals(pattern+" "+d0, Lex.match(p, 0, data, d0), lex.match(data, d0));
+		}
+	}
+
+	@Test
+	public void escapedBracesAreNoSets() {
+		byte[] data = bytes("{^x}{(a)");
+		for (String pattern : new String[] { "\\{^", "\\{^x\\}", "{\\{}^", "\\{^\\}\\{(a)", "{\\}(}" }) {
+			byte[] p = bytes(pattern);
+			CompiledLex lex = Lex.compile(p);
+			for (int d0 = 0; d0 < data.length; d0++)
+				assertEquals(pattern+" "+d0, Lex.match(p, 0, data, d0), lex.match(data, d0));
+		}
+	}
+
+	@Test
+	public void matchesIgnoringCase() {
+		byte[] data = bytes("GET /Index.HTML HTTP/1.1");
+		assertEquals(Lex.pos(13, 15), Lex.compile(bytes("get /~(.html)"), true).match(data, 0));
+		assertEquals(Lex.pos(18, 15), Lex.compile(bytes("GET /{a-z}+.{h}TML"), true).match(data, 0));
+		assertEquals(Lex.pos(14, 24), Lex.compile(bytes("~(\\h\\t\\t\\p/)?+"), true).match(data, 0));
+		assertEquals(Lex.pos(0, -1), Lex.compile(bytes("get"), false).match(data, 0));
+		assertEquals(Lex.pos(3, -4), Lex.compile(bytes("GET "), true).match(bytes("get_"), 0));
+		assertEquals(Lex.pos(2, 11), Lex.compile(bytes("~x"), true).match(bytes("0123456789X"), 0));
+		assertEquals(Lex.pos(0, -1), Lex.compile(bytes("{^a-z}"), true).match(bytes("Q"), 0));
+		assertEquals(Lex.pos(6, 1), Lex.compile(bytes("{^a-z}"), true).match(bytes("_"), 0));
+		assertEquals(Lex.pos(6, 3), Lex.compile(bytes("\\G\\e\\T"), true).match(bytes("get"), 0));
+		assertEquals(Lex.pos(2, -2), Lex.compile(bytes("\\G\\e\\T"), true).match(bytes("gat"), 0));
+	}
+
+	@Test
+	public void ignoringCaseMatchesLikeLowerCaseData() {
+		byte[] data = bytes("The Quick BROWN fox, jumps Over the lazy DOG [1] {x}");
+		byte[] lower = bytes("the quick brown fox, jumps over the lazy dog [1] {x}");
+		String[] patterns = { "the", "~(brown fox)", "~(over)_@+", "~{a-f}", "~(lazy dog)", "@+ quick", "~(\\[#])", "~({q}uick)", "~({^a-z }+)" };
+		for (String pattern : patterns) {
+			CompiledLex lex = Lex.compile(bytes(pattern), true);
+			CompiledLex lowerCase = Lex.compile(bytes(pattern));
+			for (int d0 = 0; d0 < data.length; d0++)
+				assertEquals(pattern+" "+d0, lowerCase.match(lower, d0), lex.match(data, d0));
+			assertEquals(pattern, lowerCase.matches(lower, 0, lower.length), lex.matches(data, 0, data.length));
+		}
+		assertEquals(true, Lex.compile(bytes("the quick ~(dog \\[1\\] \\{x\\})"), true).matches(data, 0, data.length));
+	}
+
+	@Test
+	public void compiledIsIndependentOfPatternArray() {
+		byte[] pattern = bytes("#+");
+		CompiledLex lex = Lex.compile(pattern);
+		pattern[0] = 'x';
+		assertEquals(3, (int) lex.match(bytes("123x"), 0));
+	}
+
+	@Test
+	public void capturesStartOfLeadingScan() {
+		assertCaptures("~(Foo)", "Hello Foo", 6, 9, 6, 9);
+		assertCaptures("`~(Foo)`", "Hello Foo!", 6, 9, 6, 9);
+		assertCaptures("~Foo", "Hello Foo", 6, 9);
+		assertCaptures("a~(Foo)", "a Foo", 0, 5, 2, 5);
+	}
+
+	@Test
+	public void capturesOptionalGroups() {
+		assertCaptures("##:##[:##]", "20:45", 0, 5, -1, -1);
+		assertCaptures("##:##[:##]", "20:45:11", 0, 8, 5, 8);
+		assertCaptures("[a(b)]c", "c", 0, 1, -1, -1, -1, -1);
+		assertCaptures("[a(b)]c", "abc", 0, 3, 0, 2, 1, 2);
+		assertCaptures("#+[.#+]", "12.95", 0, 5, 2, 5);
+	}
+
+	@Test
+	public void capturesLastRepetition() {
+		assertCaptures("(#,)+", "1,2,3,x", 0, 6, 4, 6);
+		assertCaptures("(#,)+", "1,x", 0, 2, 0, 2);
+		assertCaptures("[ab]+c", "ababc", 0, 5, 2, 4);
+		assertCaptures("(a(b)+)+", "abbab", 0, 5, 3, 5, 4, 5);
+	}
+
+	@Test
+	public void capturesNestedGroups() {
+		assertCaptures("(a(b(c)))", "abc", 0, 3, 0, 3, 1, 3, 2, 3);
+		assertCaptures("@+\\((#+)\\)", "abc(123)", 0, 8, 4, 7);
+	}
+
+	@Test
+	public void capturesOnMismatch() {
+		int[] slots = new int[4];
+		assertEquals(-2, (int) Lex.compile(bytes("a(b)")).match(bytes("ax"), 0, 2, slots));
+		assertEquals(-1, slots[0]);
+		assertEquals(-1, slots[2]);
+	}
+
+	@Test
+	public void findAllReportsStartOfMatch() {
+		byte[] data = bytes("a1 b22 c333 d");
+		StringBuilder found = new StringBuilder();
+		Lex.compile(bytes("~(#+)")).findAll(data, 0, data.length, (start, end) -> found.append(start).append('-').append(end).append(' '));
+		assertEquals("1-2 4-6 8-11 ", found.toString());
+	}
+
+	private static void assertCaptures(String pattern, String data, int... expected) {
+		CompiledLex lex = Lex.compile(bytes(pattern));
+		assertEquals(expected.length / 2 - 1, lex.groups());
+		int[] slots = new int[expected.length];
+		byte[] d = bytes(data);
+		lex.match(d, 0, d.length, slots);
+		assertArrayEquals(expected, slots);
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -2,7 +2,9 @@ package se.jbee.lex;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOfRange;
 import static java.util.Arrays.fill;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -12,6 +14,7 @@ import static se.jbee.lex.Lex.mismatchAt;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 
 import org.junit.Test;
@@ -117,6 +120,81 @@ public class TestLex {
 		assertFullMatch("~(Foo~(Bar))", "Only a Foo followed by a Bar");
 	}
 
+	@Test
+	public void matchScanForLiteralWithRepeatedFirstByte() {
+		assertFullMatch("~(aab)", "xaab");
+		assertFullMatch("~(aab)", "aaab");
+		assertFullMatch("~(abab)", "abaabab");
+		assertFullMatch("~(ab)x", "aaaaaabx");
+	}
+
+	@Test
+	public void matchScanForNonAsciiLiterals() {
+		assertFullMatch("~(ünd)", "Grüße ünd");
+		assertFullMatch("~(a\\(b)", "xa(a(b");
+		assertFullMatch("~(\t|x)", "a|x \t|x");
+		assertFullMatch("~(#€)", "1 € 2€");
+		assertFullMatch("~(a long literal over sixteen bytes)", "a long literal, a long literal over sixteen bytes");
+		assertFullMatch("~(aaaaaaaaaaaaaaaab)", "aaaaaaaaaaaaaaaaaaaab");
+		assertFullMatch("~(#a)", "a1a");
+		assertFullMatch("~(@@#x)", "x1xab1x");
+	}
+
+	@Test
+	public void scanHopDoesNotStopAtLiteralCutOffByEnd() {
+		long mismatch = Lex.pos(1, mismatchAt(0)); // not the partial match (3,2)
+		assertEquals(mismatch, Lex.match(bytes("~(#a)"), 0, bytes("-1"), 0));
+		assertEquals(mismatch, Lex.compile(bytes("~(#a)")).match(bytes("-1"), 0));
+		assertEquals(mismatch, Lex.match(bytes("~(#a)"), 0, "-1", 0));
+		assertEquals(3, (int) Lex.match(bytes("~(#a)"), 0, bytes("-1a"), 0));
+	}
+
+	@Test
+	public void matchDeeplyNestedGroupsWithoutRecursion() {
+		int depth = 100_000;
+		StringBuilder p = new StringBuilder();
+		for (int i = 0; i < depth; i++) p.append("([");
+		p.append("a+");
+		for (int i = 0; i < depth; i++) p.append("])");
+		byte[] pattern = bytes(p.toString());
+		assertEquals(Lex.pos(pattern.length, 3), Lex.match(pattern, 0, bytes("aaab"), 0));
+		assertEquals(Lex.pos(pattern.length, 0), Lex.match(pattern, 0, bytes("b"), 0));
+		assertEquals(5, (int) Lex.match(bytes("~(x"+p+")"), 0, bytes("yyxaa"), 0));
+		CompiledLex lex = Lex.compile(pattern);
+		assertEquals(Lex.pos(pattern.length, 3), lex.match(bytes("aaab"), 0));
+		assertEquals(Lex.pos(pattern.length, 0), lex.match(bytes("b"), 0));
+		assertEquals(5, (int) Lex.compile(bytes("~(x"+p+")")).match(bytes("yyxaa"), 0));
+		int[] slots = new int[2 * lex.groups() + 2];
+		assertEquals(3, (int) lex.match(bytes("aaab"), 0, 4, slots));
+		assertEquals(3, slots[2 * lex.groups() + 1]);
+		ByteBuffer direct = ByteBuffer.allocateDirect(4).put(bytes("aaab"));
+		assertEquals(Lex.pos(pattern.length, 3), Lex.match(pattern, 0, direct, 0, 4, -1, -1));
+		assertEquals(Lex.pos(pattern.length, 3), Lex.match(pattern, 0, "aaab", 0));
+		assertEquals(Lex.pos(pattern.length, 3), new LexProfile(pattern).match(bytes("aaab"), 0));
+		byte[] shorter = copyOfRange(pattern, 2 * (depth - 5000), pattern.length - 2 * (depth - 5000)); // jit size limit
+		assertEquals(3, (int) Lex.compile(shorter).jit().match(bytes("aaab"), 0));
+	}
+
+	@Test
+	public void indexOfLiteral() {
+		byte[] data = bytes("Grüße aus (Köln) und Köln");
+		assertEquals(13, Lex.indexOf(data, 0, bytes("Köln")));
+		assertEquals(24, Lex.indexOf(data, 14, bytes("Köln")));
+		assertEquals(12, Lex.indexOf(data, 0, bytes("(")));
+		assertEquals(-1, Lex.indexOf(data, 25, bytes("Köln")));
+		assertEquals(-1, Lex.indexOf(data, 0, bytes("köln")));
+		assertEquals(3, Lex.indexOf(data, 3, new byte[0]));
+		assertEquals(8, Lex.indexOf(data, 0, bytes("aus (Köln) und Köln")));
+	}
+
+	@Test
+	public void matchScanForClasses() {
+		assertFullMatch("~#", "no digits until 7");
+		assertFullMatch("~$", "a line\n");
+		assertFullMatch("_+x", " \t \r\n x");
+		assertFullMatch("@+#", "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1");
+	}
+
 	@Test
 	public void matchNumberExamples() {
 		// dates
@@ -817,6 +895,71 @@ public class TestLex {
 		assertNoMatchAt("(a#", "aa1", 1);
 	}
 
+	@Test
+	public void matchByteBufferHonoursPositionAndLimit() {
+		byte[] data = bytes("ab123cd45");
+		for (ByteBuffer buf : new ByteBuffer[] { ByteBuffer.wrap(data), ByteBuffer.allocateDirect(data.length).put(data) }) {
+			buf.position(2).limit(4);
+			assertEquals(4, (int) Lex.match(bytes("#+"), 0, buf));
+			assertEquals(2, buf.position());
+			buf.limit(data.length);
+			assertEquals(mismatchAt(5), (int) Lex.match(bytes("#+x"), 0, buf));
+			assertEquals(6, (int) Lex.match(bytes("~(#c)"), 0, buf));
+			assertEquals(mismatchAt(6), (int) Lex.match(bytes("c#"), 0, buf, 5));
+		}
+	}
+
+	@Test
+	public void matchCharsWithoutEncoding() {
+		assertEquals(6, (int) Lex.match(bytes("~(#+)"), 0, "ab1234cd", 0));
+		assertEquals(4, (int) Lex.match(bytes("{äö}+x"), 0, "äöäx", 0));
+		assertEquals(4, (int) Lex.match(bytes("Köln"), 0, "Köln", 0));
+		assertEquals(mismatchAt(1), (int) Lex.match(bytes("Köln"), 0, "Koln", 0));
+		assertEquals(7, (int) Lex.match(bytes("~(ö#)"), 0, "Köln ö1", 0));
+		assertEquals(3, (int) Lex.match(bytes("{?}+_"), 0, "東京 ", 0));
+		assertEquals(mismatchAt(0), (int) Lex.match(bytes("@"), 0, "Ł", 0));
+		assertEquals(5, (int) Lex.match(bytes("{😀}+!"), 0, "😀😀!", 0));
+		char[] data = "x1 y22".toCharArray();
+		assertEquals(6, (int) Lex.match(bytes("y#+"), 0, data, 3));
+		assertEquals(5, (int) Lex.match(bytes("y#+"), 0, data, 3, 5));
+		char[] smiles = "😀😀".toCharArray();
+		assertEquals(4, (int) Lex.match(bytes("{😀}+"), 0, smiles, 0));
+		assertEquals(2, (int) Lex.match(bytes("{😀}+"), 0, smiles, 0, 3)); // does not read beyond the end
+		assertEquals(mismatchAt(0), (int) Lex.match(bytes("😀"), 0, smiles, 0, 1));
+		assertEquals(Lex.pos(7, 3), Lex.match(bytes("\\(\\ö\\+"), 0, "(ö+", 0)); // escaped literals and code points
+		assertEquals(Lex.pos(0, mismatchAt(0)), Lex.match(bytes("\\öx"), 0, "ox", 0));
+	}
+
+	@Test
+	public void findAllToSink() {
+		byte[] data = bytes("a1 b22 c333 d");
+		StringBuilder found = new StringBuilder();
+		int c = Lex.findAll(bytes("~(#+)"), data, 0, data.length, (start, end) -> found.append(start).append('-').append(end).append(' '));
+		assertEquals(3, c);
+		assertEquals("0-2 2-6 6-11 ", found.toString());
+	}
+
+	@Test
+	public void findAllIntoArrays() {
+		byte[] data = bytes("a1 b22 c333 d");
+		int[] startsEnds = new int[4];
+		assertEquals(2, Lex.findAll(bytes("~(#+)"), data, 0, data.length, startsEnds));
+		assertArrayEquals(new int[] {0, 2, 2, 6}, startsEnds);
+		long[] matches = new long[8];
+		assertEquals(2, Lex.findAll(bytes("~(#+)"), data, 3, 11, matches));
+		assertEquals(3, (int)(matches[0] >> 32));
+		assertEquals(6, (int)matches[0]);
+		assertEquals(6, (int)(matches[1] >> 32));
+		assertEquals(11, (int)matches[1]);
+	}
+
+	@Test
+	public void findAllEndsWithMismatch() {
+		byte[] data = bytes("12,34,5x,67,");
+		assertEquals(2, Lex.findAll(bytes("##,"), data, 0, data.length, new int[10]));
+		assertEquals(0, Lex.findAll(bytes("[x]"), data, 0, data.length, new int[10]));
+	}
+
 	@Test
 	public void matchNonAsciiSet() {
 		assertEquals(3, match("`{?}+`".getBytes(US_ASCII), new byte[] {-1, -42, -127}, 0).dn);
@@ -906,7 +1049,51 @@ public class TestLex {
 	}
 
 	private static Match match(byte[] pattern, byte[] input, int d0) {
-		return new Match(pattern, input, Lex.match(pattern, 0, input, d0));
+		long pndn = Lex.match(pattern, 0, input, d0);
+		CompiledLex compiled = compileIfClosed(pattern);
+		if (compiled != null) {
+			assertEquals("compiled", pndn, compiled.match(input, d0));
+			assertEquals("jit", pndn, compiled.jit().match(input, d0));
+			assertEquals("captures", pndn, compiled.match(input, d0, input.length, new int[2*compiled.groups()+2]));
+		}
+		ByteBuffer direct = ByteBuffer.allocateDirect(input.length);
+		direct.put(input).flip();
+		assertEquals("direct", pndn, Lex.match(pattern, 0, direct, d0));
+		byte[] padded = new byte[input.length+4];
+		System.arraycopy(input, 0, padded, 2, input.length);
+		ByteBuffer heap = ByteBuffer.wrap(padded, 2, input.length).slice();
+		assertEquals("heap", pndn, Lex.match(pattern, 0, heap, d0));
+		// direct buffers do not delegate to the array matcher, bytes after dEnd must not be read
+		ByteBuffer bounded = ByteBuffer.allocateDirect(input.length+4);
+		bounded.put(input).put(bytes("0a ~"));
+		assertEquals("direct bounded", pndn, Lex.match(pattern, 0, bounded, d0, input.length, -1, -1));
+		if (isAscii(input)) {
+			String chars = new String(input, US_ASCII);
+			assertEquals("chars", pndn, Lex.match(pattern, 0, chars, d0));
+			assertEquals("char[]", pndn, Lex.match(pattern, 0, chars.toCharArray(), d0));
+		}
+		return new Match(pattern, input, pndn);
+	}
+
+	/**
+	 * @return the compiled pattern or null if it has an unclosed set or block,
+	 *         those are only matched by the interpreter
+	 */
+	private static CompiledLex compileIfClosed(byte[] pattern) {
+		try {
+			return Lex.compile(pattern);
+		} catch (IllegalArgumentException e) {
+			if (!e.getMessage().startsWith("Unclosed"))
+				throw e;
+			return null;
+		}
+	}
+
+	private static boolean isAscii(byte[] data) {
+		for (byte b : data)
+			if (b < 0)
+				return false;
+		return true;
 	}
 
 	private static byte[] bytes(String s) {
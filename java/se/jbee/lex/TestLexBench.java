@@ -0,0 +1,101 @@
+package se.jbee.lex;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import se.jbee.lex.LexCorpus.Kind;
+
+/**
+ * Searches generated data (see {@link LexCorpus}) for all matches of a
+ * pattern. Data is created in the setup so nothing needs to be downloaded.
+ *
+ * Run with the GC profiler and JSON results to compare versions:
+ *
+ * <pre>
+ * ant bench
+ * java -jar dist/benchmarks.jar TestLexBench -p size=1G -prof gc -rf json -rff bench.json
+ * </pre>
+ *
+ * Throughput is reported in bytes per microsecond (MB/s) by dividing the
+ * average time per operation into the size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector", "-Xmx3g" })
+public class TestLexBench {
+
+	@Param({ "1K", "1M", "64M" })
+	public String size;
+	@Param({ "LOG", "HTML", "CSV", "UTF8" })
+	public String corpus;
+	@Param({ "literal", "class" })
+	public String shape;
+	@Param({ "0.01" })
+	public double density;
+
+	private byte[] data;
+	private byte[] pattern;
+	private CompiledLex compiled;
+	private CompiledLex jit;
+	private final long[] found = new long[256];
+	private int count;
+	private final Lex.MatchSink sink = (start, end) -> count++;
+
+	@Setup
+	public void setup() {
+		Kind kind = Kind.valueOf(corpus);
+		data = LexCorpus.generate(kind, LexCorpus.size(size), density, 42L);
+		pattern = LexCorpus.pattern(kind, shape);
+		compiled = Lex.compile(pattern);
+		jit = compiled.jit();
+	}
+
+	@Benchmark
+	public void findAllInterpreted(Blackhole hole) {
+		int d0 = 0;
+		int c = 0;
+		int n;
+		do {
+			n = Lex.findAll(pattern, data, d0, data.length, found);
+			if (n > 0)
+				d0 = (int) found[n-1];
+			c += n;
+		} while (n == found.length);
+		hole.consume(c);
+	}
+
+	@Benchmark
+	public void findAllCompiled(Blackhole hole) {
+		count = 0;
+		hole.consume(compiled.findAll(data, 0, data.length, sink));
+	}
+
+	@Benchmark
+	public void searchJit(Blackhole hole) {
+		int d0 = 0;
+		int c = 0;
+		while (d0 >= 0 && d0 < data.length) {
+			int dn = (int) jit.match(data, d0);
+			if (dn <= d0)
+				break;
+			d0 = dn;
+			c++;
+		}
+		hole.consume(c);
+	}
+}
@@ -0,0 +1,106 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestLexBudget {
+
+	@Test
+	public void sufficientBudgetMatchesLikeUnlimited() {
+		String[] patterns = { "####/##/##", "~(Foo)", "#+[.#+]", "(a(b)+)+", "`~(<p>)~(</p>)`", "[{a-c}+#+]+_" };
+		byte[] data = bytes("x 2017/10/24 Foo 12.95 abbab <p>text</p> ab12cc3 ");
+		for (String pattern : patterns) {
+			byte[] p = bytes(pattern);
+			for (int d0 = 0; d0 < data.length; d0++) {
+				LexBudget budget = new LexBudget(10_000);
+				assertEquals(pattern, Lex.match(p, 0, data, d0), Lex.match(p, 0, data, d0, data.length, budget));
+				assertTrue(budget.remaining() < 10_000);
+			}
+		}
+	}
+
+	@Test
+	public void exhaustedBudgetEndsMatch() {
+		byte[] data = bytes("1234567890");
+		long res = Lex.match(bytes("#+"), 0, data, 0, data.length, new LexBudget(3));
+		assertTrue(Lex.isExhausted(res));
+		assertTrue((int) res < 0);
+		assertFalse(Lex.isExhausted(Lex.match(bytes("#+"), 0, data, 0, data.length, new LexBudget(20))));
+	}
+
+	@Test
+	public void budgetCountsNestedGroupsAndRetries() {
+		byte[] data = bytes("abababababababababababababababab");
+		byte[] pattern = bytes("((a)(b))+");
+		long unlimited = Lex.match(pattern, 0, data, 0);
+		assertEquals(data.length, (int) unlimited);
+		assertTrue(Lex.isExhausted(Lex.match(pattern, 0, data, 0, data.length, new LexBudget(data.length))));
+	}
+
+	@Test
+	public void budgetCountsScannedBytes() {
+		byte[] data = new byte[100_000];
+		Arrays.fill(data, (byte) 'x');
+		data[data.length - 1] = 'y';
+		assertEquals(data.length, (int) Lex.match(bytes("~(y)"), 0, data, 0));
+		assertTrue(Lex.isExhausted(Lex.match(bytes("~(y)"), 0, data, 0, data.length, new LexBudget(1000))));
+		assertTrue(Lex.isExhausted(Lex.match(bytes("~y"), 0, data, 0, data.length, new LexBudget(1000))));
+		assertTrue(Lex.isExhausted(Lex.match(bytes("~(@y)"), 0, data, 0, data.length, new LexBudget(1000))));
+	}
+
+	@Test
+	public void scansAndRunsDoNotPassTheBudget() {
+		byte[] data = new byte[200 << 20];
+		Arrays.fill(data, (byte) '1');
+		for (int i = 0; i < 1000; i++) { // each scan to the end takes milliseconds
+			LexBudget budget = new LexBudget(1000);
+			assertTrue(Lex.isExhausted(Lex.match(bytes("~(XYZ)"), 0, data, 0, data.length, budget)));
+			assertTrue(Lex.isExhausted(Lex.match(bytes("~X"), 0, data, 0, data.length, new LexBudget(1000))));
+			assertTrue(Lex.isExhausted(Lex.match(bytes("#+"), 0, data, 0, data.length, new LexBudget(1000))));
+		}
+		assertEquals(5, (int) Lex.match(bytes("~(XYZ)"), 0, bytes("abXYZ"), 0, 5, new LexBudget(100)));
+	}
+
+	@Test
+	public void budgetIsSharedByMatches() {
+		byte[] data = bytes("12345");
+		LexBudget budget = new LexBudget(12);
+		assertEquals(5, (int) Lex.match(bytes("#####"), 0, data, 0, data.length, budget));
+		assertEquals(5, (int) Lex.match(bytes("#####"), 0, data, 0, data.length, budget));
+		assertTrue(Lex.isExhausted(Lex.match(bytes("#####"), 0, data, 0, data.length, budget)));
+	}
+
+	@Test
+	public void cancelledOrTimedOutBudgetIsExhausted() {
+		byte[] data = bytes("12345");
+		LexBudget budget = new LexBudget(Long.MAX_VALUE);
+		budget.cancel();
+		assertTrue(Lex.isExhausted(Lex.match(bytes("#+"), 0, data, 0, data.length, budget)));
+		assertTrue(Lex.isExhausted(Lex.match(bytes("#+"), 0, data, 0, data.length, new LexBudget(Long.MAX_VALUE, 0L))));
+	}
+
+	@Test
+	public void cancelIsNoticedDuringMatch() {
+		byte[] data = new byte[1_000_000];
+		Arrays.fill(data, (byte) 'a');
+		LexBudget budget = new LexBudget(Long.MAX_VALUE);
+		byte[] pattern = bytes("(a)+");
+		Thread canceller = new Thread(budget::cancel);
+		canceller.start();
+		long res;
+		do {
+			res = Lex.match(pattern, 0, data, 0, data.length, budget);
+		} while (!Lex.isExhausted(res));
+		assertTrue(budget.isExhausted());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,90 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestLexCache {
+
+	@Test
+	public void compilesOnce() {
+		LexCache cache = new LexCache(10);
+		byte[] pattern = bytes("#+[.#+]");
+		CompiledLex lex = cache.compile(pattern);
+		assertSame(lex, cache.compile(bytes("#+[.#+]")));
+		assertSame(lex, cache.compile(pattern));
+		assertEquals(1, cache.misses());
+		assertEquals(2, cache.hits());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void keyIsNotChangedByCaller() {
+		LexCache cache = new LexCache(10);
+		byte[] pattern = bytes("a#");
+		CompiledLex lex = cache.compile(pattern);
+		pattern[0] = 'b';
+		assertNotSame(lex, cache.compile(pattern));
+		assertSame(lex, cache.compile(bytes("a#")));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		LexCache cache = new LexCache(2);
+		CompiledLex a = cache.compile(bytes("a"));
+		cache.compile(bytes("b"));
+		cache.compile(bytes("a"));
+		cache.compile(bytes("c")); // evicts b
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.evictions());
+		assertSame(a, cache.compile(bytes("a")));
+		cache.compile(bytes("b"));
+		assertEquals(4, cache.misses());
+		assertEquals(2, cache.evictions());
+	}
+
+	@Test
+	public void sharesCompiledPatternBetweenThreads() throws InterruptedException {
+		LexCache cache = new LexCache(4);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicReference<CompiledLex> first = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					for (int k = 0; k < 1000; k++) {
+						CompiledLex lex = cache.compile(bytes("~(ERROR )#+"));
+						first.compareAndSet(null, lex);
+						assertSame(first.get(), lex);
+					}
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		start.countDown();
+		for (Thread t : threads)
+			t.join();
+		assertEquals(0, failures.size());
+		assertEquals(1, cache.misses());
+		assertEquals(7999, cache.hits());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
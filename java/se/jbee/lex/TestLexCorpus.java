@@ -0,0 +1,43 @@
+package se.jbee.lex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import se.jbee.lex.LexCorpus.Kind;
+
+public class TestLexCorpus {
+
+	@Test
+	public void sizes() {
+		assertEquals(1024, LexCorpus.size("1K"));
+		assertEquals(64 << 20, LexCorpus.size("64M"));
+		assertEquals(1 << 30, LexCorpus.size("1G"));
+		assertEquals(100, LexCorpus.size("100"));
+	}
+
+	@Test
+	public void generatesSameDataForSameArguments() {
+		for (Kind kind : Kind.values()) {
+			byte[] data = LexCorpus.generate(kind, 10_000, 0.1, 1L);
+			assertEquals(10_000, data.length);
+			assertArrayEquals(data, LexCorpus.generate(kind, 10_000, 0.1, 1L));
+		}
+	}
+
+	@Test
+	public void literalPatternsFindHitsInDensity() {
+		for (Kind kind : Kind.values()) {
+			byte[] data = LexCorpus.generate(kind, 1 << 20, 0.05, 7L);
+			int lines = 0;
+			for (byte b : data)
+				if (b == '\n')
+					lines++;
+			int hits = Lex.findAll(LexCorpus.pattern(kind, "literal"), data, 0, data.length, (start, end) -> {});
+			assertTrue(kind+" "+hits+" of "+lines, hits > lines * 0.04 && hits < lines * 0.06);
+			assertTrue(kind.name(), Lex.findAll(LexCorpus.pattern(kind, "class"), data, 0, data.length, (start, end) -> {}) >= hits);
+		}
+	}
+}
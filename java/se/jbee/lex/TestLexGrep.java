@@ -0,0 +1,125 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import se.jbee.lex.LexGrep.Mode;
+
+public class TestLexGrep {
+
+	private static final String LOG = "10:01 INFO start\n10:02 ERROR 500 lookup\n\n10:03 WARN slow\n10:04 ERROR 404 user";
+
+	@Test
+	public void printsMatchingLines() throws IOException {
+		assertGrep("~(ERROR )#+", LOG, Mode.LINES, "10:02 ERROR 500 lookup\n10:04 ERROR 404 user\n", 2);
+		assertGrep("##:##_WARN", LOG, Mode.LINES, "10:03 WARN slow\n", 1);
+		assertGrep("##:##_WARN_fast", LOG, Mode.LINES, "", 0);
+		assertGrep("~(DEBUG)", LOG, Mode.LINES, "", 0);
+	}
+
+	@Test
+	public void printsByteOffsets() throws IOException {
+		assertGrep("~(ERROR)", LOG, Mode.OFFSETS, "17:10:02 ERROR 500 lookup\n57:10:04 ERROR 404 user\n", 2);
+	}
+
+	@Test
+	public void printsCountOrFile() throws IOException {
+		assertGrep("~(ERROR)", LOG, Mode.COUNT, "2\n", 2);
+		assertGrep("~(ERROR)", LOG, Mode.FILES, "%\n", 1);
+		assertGrep("~(FATAL)", LOG, Mode.FILES, "", 0);
+	}
+
+	@Test
+	public void fileIsDoneWithFirstMatchingLine() throws IOException {
+		String log = "10:01 ERROR first\n" + "10:02 INFO ok\n".repeat(100_000) + "10:03 ERROR last\n";
+		assertGrep("~(ERROR)", log, Mode.FILES, "%\n", 1);
+		assertGrep("~(ERROR)", log, Mode.COUNT, "2\n", 2);
+	}
+
+	@Test
+	public void chunksAndWindowsDoNotChangeTheResult() throws IOException {
+		Random rnd = new Random(22);
+		StringBuilder log = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		CompiledLex lex = Lex.compile(bytes("~(ERROR )#+"));
+		for (int i = 0; i < 2000; i++) {
+			String line = i + (rnd.nextInt(5) == 0 ? " ERROR " + rnd.nextInt(600) : " INFO ok") + " x";
+			byte[] l = bytes(line);
+			if (lex.isComplete(lex.match(l, 0, l.length)))
+				expected.append(log.length()).append(':').append(line).append('\n');
+			log.append(line).append('\n');
+		}
+		for (int[] windowChunk : new int[][] { { 1 << 20, 1 << 20 }, { 4096, 100 }, { 64, 1 }, { 10, 1 } })
+			assertEquals(expected.toString(), grep("~(ERROR )#+", log.toString(), Mode.OFFSETS, windowChunk[0], windowChunk[1]));
+	}
+
+	@Test
+	public void exitsWithErrorOnBadPattern() {
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		assertEquals(2, run(err, "{^", "none.log"));
+		assertEquals("Unclosed set at 0: {^\n", new String(err.toByteArray(), UTF_8));
+		assertEquals(2, run(new ByteArrayOutputStream(), "ab\\", "none.log"));
+		assertEquals(2, run(new ByteArrayOutputStream(), "-x", "a", "none.log"));
+	}
+
+	@Test
+	public void continuesAfterMissingFile() throws IOException {
+		Path file = Files.createTempFile("lexgrep", ".log");
+		Path missing = file.resolveSibling(file.getFileName()+".missing");
+		try {
+			Files.write(file, bytes(LOG));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ByteArrayOutputStream err = new ByteArrayOutputStream();
+			assertEquals(2, LexGrep.grep(new String[] { "-c", "~(ERROR)", missing.toString(), file.toString() },
+					Channels.newChannel(out), new PrintStream(err, true)));
+			assertEquals(file+":2\n", new String(out.toByteArray(), UTF_8));
+			assertTrue(new String(err.toByteArray(), UTF_8).startsWith(missing+": "));
+			assertEquals(0, LexGrep.grep(new String[] { "~(ERROR)", file.toString() }, Channels.newChannel(out), System.err));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static int run(ByteArrayOutputStream err, String... args) {
+		return LexGrep.grep(args, Channels.newChannel(new ByteArrayOutputStream()), new PrintStream(err, true));
+	}
+
+	private static void assertGrep(String pattern, String data, Mode mode, String expected, long count) throws IOException {
+		Path file = Files.createTempFile("lexgrep", ".log");
+		try {
+			Files.write(file, bytes(data));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(count, LexGrep.grep(bytes(pattern), file, mode, false, Channels.newChannel(out), 1 << 20, 16));
+			assertEquals(expected.replace("%", file.toString()), new String(out.toByteArray(), UTF_8));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static String grep(String pattern, String data, Mode mode, int window, int chunk) throws IOException {
+		Path file = Files.createTempFile("lexgrep", ".log");
+		try {
+			Files.write(file, bytes(data));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			LexGrep.grep(bytes(pattern), file, mode, false, Channels.newChannel(out), window, chunk);
+			return new String(out.toByteArray(), UTF_8);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
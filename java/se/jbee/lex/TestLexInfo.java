@@ -0,0 +1,126 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLexInfo {
+
+	@Test
+	public void lengths() {
+		assertLengths("####-##-##", 10, 10);
+		assertLengths("#+", 1, -1);
+		assertLengths("ab[cd]e", 3, 5);
+		assertLengths("(a(b)c)", 3, 3);
+		assertLengths("\\(#\\)", 3, 3);
+		assertLengths("{a-z}@?", 3, 3);
+		assertLengths("~(ab)", 2, -1);
+		assertLengths("ab`cd", 2, -1);
+		assertLengths("", 0, 0);
+	}
+
+	@Test
+	public void firstBytes() {
+		LexInfo info = new LexInfo(bytes("[\\+-]#+"));
+		assertTrue(info.canStartWith((byte) '+'));
+		assertTrue(info.canStartWith((byte) '7'));
+		assertFalse(info.canStartWith((byte) 'x'));
+		info = new LexInfo(bytes("{a-c}x"));
+		assertTrue(info.canStartWith((byte) 'b'));
+		assertFalse(info.canStartWith((byte) 'x'));
+		assertTrue(new LexInfo(bytes("~x")).canStartWith((byte) 'q'));
+		assertTrue(new LexInfo(bytes("[a`]b")).canStartWith((byte) 'b'));
+		assertTrue(new LexInfo(bytes("ä")).canStartWith(bytes("ä")[0]));
+	}
+
+	@Test
+	public void requiredLiterals() {
+		assertLiterals("~(ERROR )#+ at", "ERROR ", " at");
+		assertLiterals("ab+c", "ab", "c");
+		assertLiterals("x[yz](uv)", "x", "uv");
+		assertLiterals("\\(#\\)", "(", ")");
+		assertLiterals("ab`cd", "ab");
+		assertLiterals("#+");
+	}
+
+	@Test
+	public void matchesOnlyCompleteMatches() {
+		CompiledLex date = Lex.compile(bytes("####-##-##"));
+		byte[] data = bytes("2024-01-31");
+		assertTrue(date.matches(data, 0, data.length));
+		assertFalse(date.matches(data, 0, 4)); // a match by Lex, but incomplete
+		assertFalse(date.matches(bytes("2024-01-311"), 0, 11));
+		assertFalse(date.matches(bytes("x024-01-31"), 0, 10));
+		CompiledLex number = Lex.compile(bytes("#+[.#+]"));
+		assertTrue(number.matches(bytes("42"), 0, 2)); // optional block is not needed
+		assertFalse(number.matches(bytes("42."), 0, 3));
+		CompiledLex error = Lex.compile(bytes("~(ERROR )#+"));
+		assertTrue(error.matches(bytes("at 3 ERROR 42"), 0, 13));
+		assertFalse(error.matches(bytes("at 3 ERRO 42"), 0, 12));
+		assertTrue(Lex.compile(bytes("ab`cd")).matches(bytes("ab"), 0, 2));
+		assertTrue(Lex.compile(bytes("(a(b)+)")).matches(bytes("abbb"), 0, 4));
+		assertFalse(Lex.compile(bytes("ab`cd")).matches(bytes("abc"), 0, 3));
+	}
+
+	@Test
+	public void matchesLikeMatchForRandomPatterns() {
+		Random rnd = new Random(7);
+		String[] parts = { "a", "b", "#", "@", "_", "?", "{a-c}", "\\+", "+", "(", ")", "[", "]", "~", "ab", "`" };
+		String[] inputs = { "a", "ab", "aab", "ab1 b", "abab", "b+", "1a2b3c", "" };
+		for (int k = 0; k < 5000; k++) {
+			StringBuilder p = new StringBuilder();
+			int n = 1 + rnd.nextInt(7);
+			for (int i = 0; i < n; i++)
+				p.append(parts[rnd.nextInt(parts.length)]);
+			String s = p.toString();
+			if (s.endsWith("~"))
+				continue; // a scan at the end reads beyond the pattern
+			if (s.matches(".*([(\\[`]\\+|^\\+|[(\\[][+`]*[)\\]]).*") || s.contains("[") && s.matches(".*[)\\]]\\+.*"))
+				continue; // repeating what can match empty does not end
+			byte[] pattern = bytes(s);
+			CompiledLex lex;
+			try {
+				lex = Lex.compile(pattern);
+			} catch (IllegalArgumentException e) {
+				continue; // unclosed, only the interpreter matches it
+			}
+			for (String input : inputs) {
+				byte[] data = bytes(input);
+				long pndn = Lex.match(pattern, 0, data, 0);
+				boolean complete = (int)pndn == data.length && CompiledLex.isEnd(pattern, (int)(pndn >> 32));
+				assertEquals(p+" "+input, complete, lex.matches(data, 0, data.length));
+			}
+		}
+	}
+
+	@Test
+	public void scanSkipsCandidatesThatCannotStart() {
+		CompiledLex lex = Lex.compile(bytes("~({x-z}#)!"));
+		assertEquals(Lex.pos(10, 7), lex.match(bytes("a1c y1!"), 0));
+		assertEquals(Lex.match(bytes("~({x-z}#)!"), 0, bytes("abc x0y1!"), 0), lex.match(bytes("abc x0y1!"), 0));
+		assertEquals(Lex.mismatchAt(0), (int) lex.match(bytes("a1c 12!"), 0));
+	}
+
+	private static void assertLengths(String pattern, int min, int max) {
+		LexInfo info = new LexInfo(bytes(pattern));
+		assertEquals(pattern, min, info.minLength());
+		assertEquals(pattern, max, info.maxLength());
+	}
+
+	private static void assertLiterals(String pattern, String... literals) {
+		byte[][] expected = new byte[literals.length][];
+		for (int i = 0; i < literals.length; i++)
+			expected[i] = bytes(literals[i]);
+		assertArrayEquals(expected, new LexInfo(bytes(pattern)).requiredLiterals());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,76 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLexJit {
+
+	@Test
+	public void generatesTypicalPatterns() {
+		for (String pattern : new String[] { "####/##/##", "#+[.#+]", "`~(<p>)~(</p>)`", "(a(b)+)+", "{a-z}+@", "\\(#+\\)" }) {
+			CompiledLex lex = Lex.compile(bytes(pattern));
+			CompiledLex jit = lex.jit();
+			assertNotSame(lex, jit);
+			assertSame(jit, jit.jit());
+		}
+	}
+
+	@Test
+	public void doesNotGenerateExitWithinBlock() {
+		CompiledLex lex = Lex.compile(bytes("(a`b)c"));
+		assertSame(lex, lex.jit());
+	}
+
+	@Test
+	public void matchesLikeInterpreterForRandomPatterns() {
+		Random rnd = new Random(5);
+		String[] parts = { "a", "b", "#", "@", "_", "^", "$", "?", "{a-c}", "{^b}", "\\+", "+", "(", ")", "[", "]", "~", "ab", "ä" };
+		byte[][] inputs = { bytes("aab12 b"), bytes("ab ab+ ä"), bytes("bbbb"), bytes("1a2b3c\n"), bytes("") };
+		for (int k = 0; k < 3000; k++) {
+			StringBuilder p = new StringBuilder();
+			int n = 1 + rnd.nextInt(8);
+			for (int i = 0; i < n; i++)
+				p.append(parts[rnd.nextInt(parts.length)]);
+			byte[] pattern = bytes(p.toString());
+			if (pattern[pattern.length-1] == '~')
+				continue; // a scan at the end reads beyond the pattern
+			if (p.toString().matches(".*[(\\[][+]*[)\\]].*"))
+				continue; // repeating an empty group does not end
+			CompiledLex jit;
+			try {
+				jit = Lex.compile(pattern).jit();
+			} catch (IllegalArgumentException e) {
+				continue; // unclosed, only the interpreter matches it
+			}
+			for (byte[] input : inputs)
+				for (int d0 = 0; d0 <= input.length; d0++)
+					assertEquals(p+" "+d0, match(pattern, input, d0), match(jit, input, d0));
+		}
+	}
+
+	private static Object match(byte[] pattern, byte[] input, int d0) {
+		try {
+			return Lex.match(pattern, 0, input, d0);
+		} catch (RuntimeException e) {
+			return e.getClass();
+		}
+	}
+
+	private static Object match(CompiledLex lex, byte[] input, int d0) {
+		try {
+			return lex.match(input, d0);
+		} catch (RuntimeException e) {
+			return e.getClass();
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
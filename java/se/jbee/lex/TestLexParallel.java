@@ -0,0 +1,82 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class TestLexParallel {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	@Test
+	public void parallelEqualsSequentialForDenseMatches() {
+		byte[] data = logs(2000, 3);
+		assertParallelEqualsSequential("~(ERROR )#+", data);
+		assertParallelEqualsSequential("~(<p>)~(</p>)", data);
+	}
+
+	@Test
+	public void parallelEqualsSequentialForSparseMatches() {
+		byte[] data = logs(2000, 500);
+		assertParallelEqualsSequential("~(ERROR )#+", data);
+	}
+
+	@Test
+	public void parallelEqualsSequentialForMatchesSpanningChunks() {
+		byte[] data = logs(200, 7);
+		assertParallelEqualsSequential("~(ERROR)~(<p>)", data);
+		assertParallelEqualsSequential("[?~(ERROR)]?", data);
+	}
+
+	@Test
+	public void parallelEqualsSequentialWhenChainEnds() {
+		byte[] data = bytes("1,2,3,4,5,6,7,8,9,x,1,2,3,4,5,6,7,8,9,0");
+		assertParallelEqualsSequential("#,", data);
+		assertEquals(9, LexParallel.findAll(bytes("#,"), data, POOL, 3).length);
+	}
+
+	private static void assertParallelEqualsSequential(String pattern, byte[] data) {
+		int[] expected = sequential(bytes(pattern), data);
+		for (int chunk : new int[] { 1, 7, 64, 1000, data.length })
+			assertArrayEquals(expected, LexParallel.findAll(bytes(pattern), data, POOL, chunk));
+		assertArrayEquals(expected, LexParallel.findAll(bytes(pattern), data));
+	}
+
+	private static int[] sequential(byte[] pattern, byte[] data) {
+		int[] ends = new int[data.length];
+		int c = 0;
+		int d0 = 0;
+		while (d0 < data.length) {
+			int dn = (int) Lex.match(pattern, 0, data, d0);
+			if (dn <= d0)
+				break;
+			ends[c++] = dn;
+			d0 = dn;
+		}
+		return Arrays.copyOf(ends, c);
+	}
+
+	private static byte[] logs(int lines, int errorEvery) {
+		Random rnd = new Random(42);
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			b.append(i).append(" INFO some text ");
+			if (rnd.nextInt(errorEvery) == 0)
+				b.append("ERROR ").append(rnd.nextInt(1000)).append(' ');
+			if (rnd.nextInt(10) == 0)
+				b.append("<p>paragraph</p>");
+			b.append('\n');
+		}
+		return bytes(b.toString());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
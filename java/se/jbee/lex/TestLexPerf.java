@@ -32,8 +32,11 @@ public class TestLexPerf {
 	
 	private final byte[] TEXT = readBytes();
 	private static byte[] readBytes() {
+		File file = new File("libraries.htm");
+		if (!file.exists()) // offline: similar generated HTML
+			return LexCorpus.generate(LexCorpus.Kind.HTML, 50 * 1024, 0.2, 42L);
 		try {
-			return Files.readAllBytes(new File("libraries.htm").toPath());
+			return Files.readAllBytes(file.toPath());
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -44,16 +47,72 @@ public class TestLexPerf {
 	public void lexSearch50K(Blackhole hole) {
 		byte[] data = TEXT;
 		int d0 = 0;
-		int[] res;
 		int c = 0;
 		while (d0 >= 0 && d0 < data.length) {
-			res = match(SEARCH_TEXT_LEX, data, d0);
-			d0 = res[1];
+			d0 = (int) Lex.match(SEARCH_TEXT_LEX, 0, data, d0);
 			c++;
 		}
 		hole.consume(c);
 	}
+
+	private final long[] FOUND = new long[64];
+	@Benchmark
+	public void lexFindAll50K(Blackhole hole) {
+		byte[] data = TEXT;
+		int d0 = 0;
+		int c = 0;
+		int n;
+		do {
+			n = Lex.findAll(SEARCH_TEXT_LEX, data, d0, data.length, FOUND);
+			if (n > 0)
+				d0 = (int) FOUND[n-1];
+			c += n;
+		} while (n == FOUND.length);
+		hole.consume(c);
+	}
 	
+	private static final ByteSearch BYTE_LOOP = new ByteSearch();
+	private static final ByteSearch SWAR = new SwarByteSearch();
+	@Benchmark
+	public void byteLoopSkipToNext50K(Blackhole hole) {
+		hole.consume(countByte(BYTE_LOOP, TEXT, (byte) '\n'));
+	}
+
+	@Benchmark
+	public void swarSkipToNext50K(Blackhole hole) {
+		hole.consume(countByte(SWAR, TEXT, (byte) '\n'));
+	}
+
+	@Benchmark
+	public void byteLoopScanWhitespace50K(Blackhole hole) {
+		hole.consume(countClass(BYTE_LOOP, TEXT, (byte) '_'));
+	}
+
+	@Benchmark
+	public void swarScanWhitespace50K(Blackhole hole) {
+		hole.consume(countClass(SWAR, TEXT, (byte) '_'));
+	}
+
+	private static int countByte(ByteSearch search, byte[] data, byte b) {
+		int c = 0;
+		int dn = search.indexOf(data, 0, data.length, b);
+		while (dn < data.length) {
+			c++;
+			dn = search.indexOf(data, dn+1, data.length, b);
+		}
+		return c;
+	}
+
+	private static int countClass(ByteSearch search, byte[] data, byte op) {
+		int c = 0;
+		int dn = search.indexOfClass(data, 0, data.length, op);
+		while (dn < data.length) {
+			c++;
+			dn = search.indexOfClass(data, search.skipClass(data, dn, data.length, op), data.length, op);
+		}
+		return c;
+	}
+
 	private final Pattern SEARCH_TEXT_REGEX = Pattern.compile("<p>.*?</p>");
 	@Benchmark
 	public void regexSearch50k(Blackhole hole) {
@@ -103,6 +162,22 @@ public class TestLexPerf {
 			hole.consume(Lex.match(MATCH_NUMBER_LEX, 0, NUMBERS[i], 0));
 		}
 	}	
+
+	private final CompiledLex MATCH_NUMBER_COMPILED = Lex.compile(MATCH_NUMBER_LEX);
+	@Benchmark
+	public void lexMatchNumbersCompiled(Blackhole hole) {
+		for (int i = 0; i < NUMBERS.length; i++) {
+			hole.consume(MATCH_NUMBER_COMPILED.match(NUMBERS[i], 0));
+		}
+	}
+
+	private final CompiledLex MATCH_NUMBER_JIT = Lex.compile(MATCH_NUMBER_LEX).jit();
+	@Benchmark
+	public void lexMatchNumbersJit(Blackhole hole) {
+		for (int i = 0; i < NUMBERS.length; i++) {
+			hole.consume(MATCH_NUMBER_JIT.match(NUMBERS[i], 0));
+		}
+	}
 	
 	private final Pattern MATCH_NUMBER_REGEX = Pattern.compile("[.0-9]([.xb0-9]([0-9A-Fa-f_]+)?(\\.\\d+)?)?([dDfFlL])?");
 	@Benchmark
@@ -112,11 +187,6 @@ public class TestLexPerf {
 		}
 	}
 	
-	private static int[] match(byte[] pattern, byte[] input, int d0) {
-		long res = Lex.match(pattern, 0, input, d0);
-		return new int[] { (int)(res >> 32), (int)res };
-	}
-	
 	/**
 	 * Make an byte[] look like a {@link CharSequence}.
 	 */
@@ -0,0 +1,60 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestLexProfile {
+
+	@Test
+	public void matchesLikeLex() {
+		String[][] cases = { { "~(ERROR )#+", "x ERROR a ERROR 42 " }, { "#+[.#+]", "12.5" },
+				{ "(a(b)+)+", "ababbx" }, { "{a-z}+@", "abc" }, { "~_#", "a 1" } };
+		for (String[] c : cases) {
+			byte[] data = bytes(c[1]);
+			LexProfile profile = new LexProfile(bytes(c[0]));
+			for (int d0 = 0; d0 <= data.length; d0++)
+				assertEquals(c[0]+" "+d0, Lex.match(bytes(c[0]), 0, data, d0), profile.match(data, d0));
+		}
+	}
+
+	@Test
+	public void countsScanCandidatesAndHits() {
+		LexProfile profile = new LexProfile(bytes("~(a#)_"));
+		assertEquals(Lex.pos(6, 6), profile.match(bytes("ab a1 "), 0));
+		assertEquals(1, profile.runs(0));
+		assertEquals(2, profile.candidates(0));
+		assertEquals(1, profile.hits(0));
+		assertEquals(3, profile.scanned(0));
+		assertEquals(1, profile.runs(5));
+	}
+
+	@Test
+	public void countsRetries() {
+		LexProfile profile = new LexProfile(bytes("#+"));
+		profile.match(bytes("1234x"), 0);
+		assertEquals(3, profile.retries(1));
+		assertEquals(5, profile.runs(0));
+		profile.reset();
+		assertEquals(0, profile.runs(0));
+		assertEquals(0, profile.retries(1));
+	}
+
+	@Test
+	public void reportPointsAtInstructions() {
+		LexProfile profile = new LexProfile(bytes("~(ab)c"));
+		profile.match(bytes("xxabc"), 0);
+		assertEquals("~(ab)c\n"
+				+ "^0 runs=1 scanned=2 candidates=1 hits=1\n"
+				+ " ^1 runs=2\n"
+				+ "  ^2 runs=2\n"
+				+ "   ^3 runs=2\n"
+				+ "    ^4 runs=2\n"
+				+ "     ^5 runs=1\n", profile.toString());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,97 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestLexRecord {
+
+	private static final LexFields ACCESS_LOG = new LexFields(
+			bytes("(#+.#+.#+.#+) ~(\\[)({^\\]}+)\\] \"(@+) (^+) {^\"}+\" (#+)[ (#+)]"),
+			"ip", null, "time", "method", "path", "status", null, "size");
+
+	@Test
+	public void extractsNamedFields() {
+		byte[] line = bytes("127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /a.gif HTTP/1.0\" 200 2326");
+		LexRecord r = ACCESS_LOG.newRecord();
+		assertTrue(ACCESS_LOG.match(line, 0, line.length, r));
+		assertEquals("127.0.0.1", r.textAt(ACCESS_LOG.slot("ip")));
+		assertEquals("10/Oct/2000:13:55:36 -0700", r.textAt(ACCESS_LOG.slot("time")));
+		assertTrue(r.equals(ACCESS_LOG.slot("method"), bytes("GET")));
+		assertEquals("/a.gif", r.textAt(ACCESS_LOG.slot("path")));
+		assertEquals(200, r.intAt(ACCESS_LOG.slot("status")));
+		assertEquals(2326L, r.longAt(ACCESS_LOG.slot("size")));
+		assertEquals(0, r.start(0));
+		assertEquals(line.length, r.end(0));
+	}
+
+	@Test
+	public void reusesRecordForEachLine() {
+		byte[] lines = bytes("1.2.3.4 [t] \"GET / H\" 404 0\n5.6.7.8 [u] \"POST /x H\" 500\n");
+		LexRecord r = ACCESS_LOG.newRecord();
+		int status = ACCESS_LOG.slot("status");
+		int size = ACCESS_LOG.slot("size");
+		assertTrue(ACCESS_LOG.match(lines, 0, 27, r));
+		assertEquals(404, r.intAt(status));
+		assertEquals(0, r.intAt(size));
+		assertTrue(ACCESS_LOG.match(lines, 28, lines.length - 1, r));
+		assertEquals(500, r.intAt(status));
+		assertFalse(r.isSet(size)); // optional group did not match
+		assertNull(r.textAt(size));
+		assertEquals("POST", r.textAt(ACCESS_LOG.slot("method")));
+	}
+
+	@Test
+	public void rejectsIncompleteLines() {
+		byte[] line = bytes("1.2.3.4 [t] \"GET");
+		assertFalse(ACCESS_LOG.match(line, 0, line.length, ACCESS_LOG.newRecord()));
+		line = bytes("x.2.3.4 [t] \"GET / H\" 200 1");
+		assertFalse(ACCESS_LOG.match(line, 0, line.length, ACCESS_LOG.newRecord()));
+	}
+
+	@Test
+	public void parsesNumbersInPlace() {
+		LexFields numbers = new LexFields(bytes("([-]#+) ([-]#+)"), "a", null, "b"); // [-] is group 2
+		int a = numbers.slot("a");
+		int b = numbers.slot("b");
+		assertEquals(3, b);
+		LexRecord r = numbers.newRecord();
+		byte[] data = bytes("-9223372036854775808 9223372036854775807");
+		assertTrue(numbers.match(data, 0, data.length, r));
+		assertEquals(Long.MIN_VALUE, r.longAt(a));
+		assertEquals(Long.MAX_VALUE, r.longAt(b));
+		assertNumberFormatException(r, a, true);
+		data = bytes("-7 9223372036854775808");
+		assertTrue(numbers.match(data, 0, data.length, r));
+		assertEquals(-7, r.intAt(a));
+		assertNumberFormatException(r, b, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownName() {
+		ACCESS_LOG.slot("referrer");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMoreNamesThanGroups() {
+		new LexFields(bytes("(#+)"), "a", "b");
+	}
+
+	private static void assertNumberFormatException(LexRecord r, int slot, boolean asInt) {
+		try {
+			if (asInt) r.intAt(slot); else r.longAt(slot);
+			fail("expected NumberFormatException");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
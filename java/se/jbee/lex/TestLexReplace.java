@@ -0,0 +1,96 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestLexReplace {
+
+	@Test
+	public void replacesMatches() throws IOException {
+		assertReplaced("~(token=)^+", "token=***", "a token=abc b token=xyz c", "a token=*** b token=*** c");
+		assertReplaced("~(#)", "", "a1b2c3d", "abcd");
+		assertReplaced("~(#)", "#", "none", "none");
+	}
+
+	@Test
+	public void replacesWithGroups() throws IOException {
+		assertReplaced("~((@+)=(#+))", "$3=$2", "x a=1, bb=22", "x 1=a, 22=bb");
+		assertReplaced("~((@+)#)", "[$0|$2]", "12 ab3", "12 [ab3|ab]"); // $1 is the group scanned to
+		assertReplaced("~(#)", "$$$0", "a1b2", "a$1b$2");
+		assertReplaced("~(a[(#)])", "<$3>", "a1 a", "<1> <>");
+	}
+
+	@Test
+	public void continuesAfterMismatch() throws IOException {
+		assertReplaced("#", "x", "12ab3", "xxabx");
+		assertReplaced("~(SSN )###", "SSN ***", "x SSN 12a y SSN 345 z SSN 678", "x SSN 12a y SSN *** z SSN ***");
+		assertReplaced("~(SSN )###", "SSN ***", "SSN SSN 123", "SSN SSN ***");
+		byte[] data = bytes("x SSN 12a y SSN 345 z SSN 678");
+		assertEquals(2, new LexReplace(bytes("~(SSN )###"), bytes("SSN ***")).replaceAll(data, 0, data.length, new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void keepsMatchCutOffByEnd() throws IOException {
+		assertReplaced("abc", "X", "zzab", "zzab");
+		assertReplaced("abc", "X", "abczzab", "Xzzab");
+		assertReplaced("~(SSN )###", "SSN ***", "x SSN 345 y SSN 12", "x SSN *** y SSN 12");
+		assertReplaced("~(SSN )(###)", "<$1>", "SSN 1", "SSN 1");
+		byte[] data = bytes("x SSN 345 y SSN 12");
+		assertEquals(1, new LexReplace(bytes("~(SSN )###"), bytes("SSN ***")).replaceAll(data, 0, data.length, new ByteArrayOutputStream()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownGroup() {
+		new LexReplace(bytes("~(#)"), bytes("$2"));
+	}
+
+	@Test
+	public void growsBufferWhenFull() {
+		LexReplace replace = new LexReplace(bytes("~(@)"), bytes("<$0>"));
+		ByteBuffer out = ByteBuffer.allocate(4);
+		out.put((byte) '>');
+		ByteBuffer grown = replace.replaceAll(bytes("1a2b3c"), 0, 6, out);
+		assertNotSame(out, grown);
+		assertEquals(">1<a>2<b>3<c>", new String(grown.array(), 0, grown.position(), UTF_8));
+		ByteBuffer direct = replace.replaceAll(bytes("1a"), 0, 2, ByteBuffer.allocateDirect(2));
+		assertTrue(direct.isDirect());
+		assertEquals(4, direct.position());
+		ByteBuffer big = ByteBuffer.allocate(64);
+		assertSame(big, replace.replaceAll(bytes("1a"), 0, 2, big));
+	}
+
+	@Test
+	public void streamsLargeData() throws IOException {
+		StringBuilder data = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			data.append("user=").append(i).append(" mail=u").append(i).append("@x.org\n");
+			expected.append("user=").append(i).append(" mail=<redacted>\n");
+		}
+		assertReplaced("~(mail=)^+", "mail=<redacted>", data.toString(), expected.toString());
+	}
+
+	private static void assertReplaced(String pattern, String replacement, String data, String expected) throws IOException {
+		LexReplace replace = new LexReplace(bytes(pattern), bytes(replacement));
+		byte[] input = bytes("--" + data + "--");
+		int to = input.length - 2;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		replace.replaceAll(input, 2, to, out);
+		assertEquals(expected, new String(out.toByteArray(), UTF_8));
+		ByteBuffer buf = replace.replaceAll(input, 2, to, ByteBuffer.allocate(1));
+		assertEquals(expected, new String(buf.array(), 0, buf.position(), UTF_8));
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,80 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLexSet {
+
+	@Test
+	public void findsLikeEachPatternOnItsOwn() {
+		byte[] data = logs(3000);
+		assertFindsLikeEachPattern(data,
+				"~(ERROR )#+", "~(ERROR )@+", "~(WARN)", "~(<p>)~(</p>)", "~(#ms)", "~(ab)", "~(b)",
+				"~(ERROR )#+", "~(üö)", "~(#:#)", "#+_INFO", "~#", "~(__)");
+	}
+
+	@Test
+	public void findsOverlappingLiterals() {
+		assertFindsLikeEachPattern(bytes("aaaabaabaaab"), "~(aab)", "~(ab)", "~(b)", "~(aaab)", "~(a)a", "~(ba)");
+	}
+
+	@Test
+	public void findsWithinRange() {
+		byte[] data = bytes("x1 x2 x3 x4");
+		List<String> found = new ArrayList<>();
+		int c = new LexSet(bytes("~(x)#")).findAll(data, 3, 8, (p, s, e) -> found.add(p + ":" + s + "-" + e));
+		assertEquals(2, c);
+		assertEquals("[0:3-5, 0:6-8]", found.toString());
+	}
+
+	@Test
+	public void endsPatternOnMismatch() {
+		List<String> found = new ArrayList<>();
+		new LexSet(bytes("~(x)#"), bytes("~(y)")).findAll(bytes("x1 y xa x2 y"), 0, 12, (p, s, e) -> found.add(p + ":" + s + "-" + e));
+		assertEquals("[0:0-2, 1:3-4, 1:11-12]", found.toString());
+	}
+
+	private static void assertFindsLikeEachPattern(byte[] data, String... patterns) {
+		byte[][] ps = new byte[patterns.length][];
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < patterns.length; i++) {
+			ps[i] = bytes(patterns[i]);
+			final int p = i;
+			Lex.compile(ps[i]).findAll(data, 0, data.length, (s, e) -> expected.add(p + ":" + s + "-" + e));
+		}
+		List<String> actual = new ArrayList<>();
+		int c = new LexSet(ps).findAll(data, 0, data.length, (p, s, e) -> actual.add(p + ":" + s + "-" + e));
+		assertEquals(expected.size(), c);
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(expected, actual);
+	}
+
+	private static byte[] logs(int lines) {
+		Random rnd = new Random(11);
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			b.append(i % 24).append(':').append(i % 60).append(" INFO ");
+			switch (rnd.nextInt(6)) {
+			case 0: b.append("ERROR ").append(rnd.nextInt(500)).append(' '); break;
+			case 1: b.append("ERROR code "); break;
+			case 2: b.append("WARN took ").append(rnd.nextInt(100)).append("ms "); break;
+			case 3: b.append("<p>grüß üö</p> "); break;
+			default: b.append("ab  ba ");
+			}
+			b.append('\n');
+		}
+		return bytes(b.toString());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,124 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLexSplit {
+
+	@Test
+	public void splitsAtDelimiters() {
+		assertSplit("_+", "a  b\tc", "a", "b", "c");
+		assertSplit("{,;}", "1,2;3", "1", "2", "3");
+		assertSplit(",", "a,,b,", "a", "", "b", "");
+		assertSplit(",", "", "");
+		assertSplit(",", "abc", "abc");
+		assertSplit(", ", "a, b,c, ", "a", "b,c", "");
+		assertSplit("\\|#", "x|1y|z|2", "x", "y|z", "");
+	}
+
+	@Test
+	public void delimitersMustBeComplete() {
+		assertSplit("--", "a-b--c-", "a-b", "c-");
+		assertSplit("(#:)", "1:2:x3", "", "", "x3");
+	}
+
+	@Test
+	public void splitsWithinRangeUntilArrayIsFull() {
+		byte[] data = bytes("a,b,c,d");
+		int[] fields = new int[4];
+		assertEquals(2, Lex.split(bytes(","), data, 2, 7, fields));
+		assertEquals(2, fields[0]);
+		assertEquals(3, fields[1]);
+		assertEquals(4, fields[2]);
+		assertEquals(5, fields[3]);
+	}
+
+	@Test
+	public void iteratesReusedSlices() {
+		LexSplit split = new LexSplit(bytes("_+"));
+		byte[] data = bytes("ab  cd e");
+		assertEquals("ab", string(split.reset(data, 0, data.length).next()));
+		assertEquals(0, split.start());
+		assertEquals(2, split.end());
+		ByteBuffer field = split.next();
+		assertSame(field, split.next());
+		assertEquals("e", string(field));
+		assertFalse(split.hasNext());
+		assertEquals("cd", string(split.reset(data, 4, 6).next()));
+	}
+
+	@Test
+	public void advancesWithoutBuffer() {
+		LexSplit split = new LexSplit(bytes("_+"));
+		byte[] data = bytes("ab  cd e");
+		StringBuilder fields = new StringBuilder();
+		for (split.reset(data, 0, data.length); split.hasNext(); ) {
+			split.advance();
+			fields.append(split.start()).append('-').append(split.end()).append(' ');
+		}
+		assertEquals("0-2 4-6 7-8 ", fields.toString());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void iteratorEnds() {
+		LexSplit split = new LexSplit(bytes(","));
+		split.reset(bytes("a"), 0, 1).next();
+		split.next();
+	}
+
+	@Test
+	public void splitsLikeStringSplit() {
+		Random rnd = new Random(24);
+		String chars = "ab ,;\t";
+		LexSplit split = new LexSplit(bytes("{ ,;\t}"));
+		for (int n = 0; n < 1000; n++) {
+			StringBuilder s = new StringBuilder();
+			for (int i = rnd.nextInt(20); i > 0; i--)
+				s.append(chars.charAt(rnd.nextInt(chars.length())));
+			byte[] data = bytes(s.toString());
+			List<String> expected = new ArrayList<>();
+			for (String f : s.toString().split("[ ,;\t]", -1))
+				expected.add(f);
+			List<String> actual = new ArrayList<>();
+			split.reset(data, 0, data.length);
+			while (split.hasNext())
+				actual.add(string(split.next()));
+			assertEquals(expected, actual);
+		}
+	}
+
+	private static void assertSplit(String pattern, String data, String... expected) {
+		byte[] bytes = bytes(data);
+		int[] fields = new int[64];
+		int c = Lex.split(bytes(pattern), bytes, 0, bytes.length, fields);
+		List<String> actual = new ArrayList<>();
+		for (int i = 0; i < c; i++)
+			actual.add(new String(bytes, fields[2*i], fields[2*i+1] - fields[2*i], UTF_8));
+		assertEquals(List.of(expected), actual);
+		List<String> iterated = new ArrayList<>();
+		LexSplit split = new LexSplit(bytes(pattern)).reset(bytes, 0, bytes.length);
+		while (split.hasNext())
+			iterated.add(string(split.next()));
+		assertEquals(actual, iterated);
+	}
+
+	private static String string(ByteBuffer field) {
+		byte[] bytes = new byte[field.remaining()];
+		field.duplicate().get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
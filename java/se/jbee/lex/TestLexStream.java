@@ -0,0 +1,161 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLexStream {
+
+	private static final byte[] TEXT = bytes(
+			"<html><p>first</p> some text <p>second paragraph</p>\n<div>no</div><p>3rd</p>"
+			+ "<p>a longer paragraph that still fits</p> trailing <p>unclosed");
+
+	@Test
+	public void chunkedSearchEqualsArraySearch() {
+		List<Long> expected = searchArray("`~(<p>)~(</p>)`", TEXT);
+		assertEquals(4, expected.size());
+		for (int chunk = 1; chunk < 20; chunk++) {
+			assertEquals("chunk "+chunk, expected, searchChunked("`~(<p>)~(</p>)`", TEXT, chunk, 128));
+		}
+	}
+
+	@Test
+	public void matchEndingAtChunkEndWaitsForMoreBytes() {
+		assertEquals(searchArray("#+", bytes("123456")), searchChunked("#+", bytes("123456"), 2, 16));
+		assertEquals(searchArray("(#,)+", bytes("1,2,3,x")), searchChunked("(#,)+", bytes("1,2,3,x"), 1, 16));
+	}
+
+	@Test
+	public void searchEndsWithFirstMismatch() {
+		LexStream stream = new LexStream(bytes("##"), 8);
+		List<Long> found = new ArrayList<>();
+		assertFalse(stream.feed(bytes("1234x56"), 0, 7, (s, e) -> found.add(e)));
+		assertTrue(stream.isDone());
+		assertEquals(2, found.size());
+		assertEquals(4L, stream.position());
+	}
+
+	@Test
+	public void windowIsBounded() throws IOException {
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			data.append("some filler text ").append(i).append(i % 7 == 0 ? " ERROR:"+i+";" : "");
+		byte[] bytes = bytes(data.toString());
+		List<Long> expected = searchArray("~(ERROR:)#+;", bytes);
+		List<Long> actual = new ArrayList<>();
+		LexStream stream = new LexStream(bytes("~(ERROR:)#+;"), 256);
+		assertEquals(expected.size(), stream.search(new ByteArrayInputStream(bytes), (s, e) -> actual.add(e)));
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void leadingScanContinuesBeyondFullWindow() {
+		byte[] data = bytes("xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxFoo");
+		for (int chunk = 1; chunk < 20; chunk += 3)
+			assertEquals(asList(0L, 43L), searchStartEndChunked("~(Foo)", data, chunk, 16));
+		assertEquals(asList(0L, 42L, 42L, 43L), searchStartEndChunked("~o", data, 5, 8));
+		assertEquals(asList(0L, 43L), searchStartEndChunked("`~(xFoo)", data, 5, 16));
+	}
+
+	@Test
+	public void leadingScanOverManyWindowsIsNotRepeated() {
+		StringBuilder log = new StringBuilder();
+		while (log.length() < 13_000)
+			log.append("10:01 INFO request served in 12ms\n");
+		byte[] data = bytes(log.append("10:02 ERROR timeout").toString());
+		assertEquals(asList(0L, (long) data.length - 8), searchStartEndChunked("~(ERROR)", data, 1000, 4096));
+	}
+
+	@Test
+	public void leadingScanContinuesLikeArraySearch() {
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 300; i++)
+			data.append("filler ").append(i).append(i % 13 == 0 ? " ERROR:"+i+"; ä1" : "");
+		byte[] bytes = bytes(data.toString());
+		for (String pattern : new String[] { "~(ERROR:)#+;", "~(#_ERROR)", "~(ä#)", "~{ä}", "~(R~;)" }) {
+			List<Long> expected = searchArray(pattern, bytes);
+			assertTrue(expected.size() > 1);
+			int window = pattern.indexOf('~', 1) > 0 ? 512 : 64; // a candidate with a scan of its own is tested again
+			for (int chunk : new int[] { 1, 7, 50 })
+				assertEquals(pattern+" "+chunk, expected, searchChunked(pattern, bytes, chunk, window));
+		}
+	}
+
+	@Test
+	public void leadingScanStoppedInFullWindowFails() {
+		byte[] data = bytes("xxxxxxxxxxxxxxxxxxxx<p>xxxxxxxxxxxxxxxxxxxx</p>");
+		LexStream stream = new LexStream(bytes("~(<p>)~(</p>)"), 16);
+		try {
+			stream.feed(data, 0, data.length, (s, e) -> {});
+			fail("window overflow expected");
+		} catch (IllegalStateException e) {
+			assertEquals(0L, stream.position());
+		}
+	}
+
+	@Test
+	public void prefixedScanInFullWindowFails() {
+		byte[] data = bytes("axxxxxxxxxxxxxxxxxxxb");
+		LexStream stream = new LexStream(bytes("a~b"), 16);
+		try {
+			stream.feed(data, 0, data.length, (s, e) -> {});
+			fail("window overflow expected");
+		} catch (IllegalStateException e) {
+			assertEquals(0L, stream.position());
+		}
+	}
+
+	@Test
+	public void optionalScanRunningOutOfBytesWaits() {
+		byte[] data = bytes("axxbc");
+		assertEquals(asList(5L), searchArray("[a~b]c", data));
+		assertEquals(asList(5L), searchChunked("[a~b]c", data, 3, 16));
+		assertEquals(asList(5L), searchChunked("[a~b]c", data, 1, 16));
+	}
+
+	private static List<Long> searchChunked(String pattern, byte[] data, int chunk, int window) {
+		List<Long> ends = new ArrayList<>();
+		LexStream stream = new LexStream(bytes(pattern), window);
+		for (int i = 0; i < data.length; i += chunk)
+			stream.feed(data, i, Math.min(chunk, data.length - i), (s, e) -> ends.add(e));
+		stream.end((s, e) -> ends.add(e));
+		return ends;
+	}
+
+	private static List<Long> searchStartEndChunked(String pattern, byte[] data, int chunk, int window) {
+		List<Long> found = new ArrayList<>();
+		LexStream stream = new LexStream(bytes(pattern), window);
+		for (int i = 0; i < data.length; i += chunk)
+			stream.feed(data, i, Math.min(chunk, data.length - i), (s, e) -> { found.add(s); found.add(e); });
+		stream.end((s, e) -> { found.add(s); found.add(e); });
+		return found;
+	}
+
+	private static List<Long> searchArray(String pattern, byte[] data) {
+		List<Long> ends = new ArrayList<>();
+		byte[] p = bytes(pattern);
+		int d0 = 0;
+		while (d0 < data.length) {
+			int dn = (int) Lex.match(p, 0, data, d0);
+			if (dn <= d0)
+				break;
+			ends.add((long) dn);
+			d0 = dn;
+		}
+		return ends;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,124 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import se.jbee.lex.LexTokenizer.Tokens;
+
+public class TestLexTokenizer {
+
+	private static final int EQUALS = 1, NAME = 2, NUMBER = 3, STRING = 4, SPACE = 5, ASSIGN = 6, COMMENT = 7;
+
+	private static final LexTokenizer CONFIG = new LexTokenizer(
+			new int[] { EQUALS, NAME, NUMBER, STRING, SPACE, ASSIGN, COMMENT },
+			bytes("=="), bytes("@[{a-zA-Z0-9_.}+]"), bytes("[-]#+[.#+]"),
+			bytes("\"~\""), bytes("_+"), bytes("="), bytes("\\#~$"));
+
+	@Test
+	public void tokenizesFirstMatchingPattern() {
+		assertTokens("port = 8080\n", "2:port 5:  6:= 5:  3:8080 5:\n");
+		assertTokens("debug==true ", "2:debug 1:== 2:true 5: ");
+		assertTokens("name=\"a b\"", "2:name 6:= 4:\"a b\"");
+		assertTokens("trueish=-1.5", "2:trueish 6:= 3:-1.5");
+		assertTokens("# note\nx=1", "7:# note\n 2:x 6:= 3:1");
+	}
+
+	@Test
+	public void stopsWhereNoPatternMatches() {
+		Tokens tokens = new Tokens();
+		byte[] data = bytes("a = ?b");
+		assertEquals(4, CONFIG.tokenize(data, 0, data.length, tokens));
+		assertEquals(4, tokens.count());
+		data = bytes("s = \"open");
+		assertEquals(4, CONFIG.tokenize(data, 0, data.length, tokens));
+	}
+
+	@Test
+	public void tokenizesWithinRange() {
+		Tokens tokens = new Tokens();
+		byte[] data = bytes("a=1 b=2");
+		assertEquals(5, CONFIG.tokenize(data, 4, 5, tokens));
+		assertEquals(1, tokens.count());
+		assertEquals(NAME, tokens.id(0));
+		assertEquals(4, tokens.start(0));
+		assertEquals(5, tokens.end(0));
+	}
+
+	@Test
+	public void growsAndReusesArrays() {
+		Tokens tokens = new Tokens(1);
+		StringBuilder config = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			config.append("key").append(i).append(" = ").append(i).append('\n');
+		byte[] data = bytes(config.toString());
+		assertEquals(data.length, CONFIG.tokenize(data, 0, data.length, tokens));
+		assertEquals(600, tokens.count());
+		int[] ids = tokens.ids();
+		CONFIG.tokenize(data, 0, 4, tokens);
+		assertEquals(1, tokens.count());
+		assertSame(ids, tokens.ids());
+	}
+
+	@Test
+	public void tokenizesLikeTryingAllPatternsInOrder() {
+		String[] patterns = { "#+", "@+", "ab", "a~b", "[x]y", "_", "{^ab}", "\"~\"", "(a)+" };
+		byte[][] ps = new byte[patterns.length][];
+		int[] ids = new int[patterns.length];
+		for (int i = 0; i < ps.length; i++) {
+			ps[i] = bytes(patterns[i]);
+			ids[i] = 10 + i;
+		}
+		LexTokenizer tokenizer = new LexTokenizer(ids, ps);
+		Random rnd = new Random(21);
+		Tokens tokens = new Tokens();
+		String chars = "ab xy1\"2?";
+		for (int n = 0; n < 1000; n++) {
+			byte[] data = new byte[rnd.nextInt(20)];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) chars.charAt(rnd.nextInt(chars.length()));
+			int end = tokenizer.tokenize(data, 0, data.length, tokens);
+			int dn = 0;
+			int t = 0;
+			while (dn < data.length) {
+				int id = -1;
+				int dEnd = -1;
+				for (int i = 0; i < ps.length && id < 0; i++) {
+					CompiledLex lex = Lex.compile(ps[i]);
+					long pndn = lex.match(data, dn, data.length);
+					if ((int)pndn > dn && lex.isComplete(pndn)) {
+						id = ids[i];
+						dEnd = (int)pndn;
+					}
+				}
+				if (id < 0)
+					break;
+				String msg = new String(data, UTF_8);
+				assertEquals(msg, id, tokens.id(t));
+				assertEquals(msg, dEnd, tokens.end(t++));
+				dn = dEnd;
+			}
+			assertEquals(dn, end);
+			assertEquals(t, tokens.count());
+		}
+	}
+
+	private static void assertTokens(String data, String expected) {
+		Tokens tokens = new Tokens(2);
+		byte[] bytes = bytes(data);
+		assertEquals(bytes.length, CONFIG.tokenize(bytes, 0, bytes.length, tokens));
+		StringBuilder actual = new StringBuilder();
+		for (int i = 0; i < tokens.count(); i++)
+			actual.append(i == 0 ? "" : " ").append(tokens.id(i)).append(':')
+				.append(new String(bytes, tokens.start(i), tokens.end(i) - tokens.start(i), UTF_8));
+		assertEquals(expected, actual.toString());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,114 @@
+package se.jbee.lex;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLexUtf8 {
+
+	@Test
+	public void setsMatchCodePoints() {
+		assertMatchEnd("{äöü}+", "äöüx", 6);
+		assertMatchEnd("{äöü}+", "äx", 2);
+		assertMatchEnd("x{äöü}", "xé", -2);
+		assertMatchEnd("{ä-ü}+", "äöüé€", 8);
+		assertMatchEnd("{東京}+ ", "東京 ", 7);
+		assertMatchEnd("{😀}+!", "😀😀!", 9);
+	}
+
+	@Test
+	public void rangesOfCodePoints() {
+		assertMatchEnd("{À-ž}+", "ÀéžŸ€", 8);
+		assertMatchEnd("{À-ž}+", "Ƃ", -1);
+		assertMatchEnd("{a-ÿ}+", "azÿ!", 4); // from ASCII up to a code point
+		assertMatchEnd("{a-ÿ}+", "aā", 1);
+		assertMatchEnd("{-ä}+", "-ä-x", 4);
+	}
+
+	@Test
+	public void mixedSetsTestAsciiByByte() {
+		assertMatchEnd("{a-cé}+", "abcéd", 5);
+		assertMatchEnd("{xyé}+", "xéyé1", 6);
+		assertMatchEnd("{\\-\\}é}+", "-}é ", 4);
+	}
+
+	@Test
+	public void negatedSetsSkipCodePoints() {
+		assertMatchEnd("{^ä}+", "xüé€ä", 8);
+		assertMatchEnd("{^äa-z}+", "ÄÖxä", 4);
+		assertMatchEnd("~{äö}", "abc€ö", 8);
+	}
+
+	@Test
+	public void invalidSequencesAreSingleBytes() {
+		assertMatchEnd("{^ä}+", new byte[] { (byte) 0xFF, (byte) 0xC3, 'a', (byte) 0xC3, (byte) 0xA4 }, 3);
+		assertMatchEnd("{ä}", new byte[] { (byte) 0xC3 }, -1);
+		assertMatchEnd("{?ä}+", new byte[] { (byte) 0xA4, (byte) 0xC3, (byte) 0xA4, 'a' }, 3);
+	}
+
+	@Test
+	public void bytesSetsAreUnchanged() {
+		assertMatchEnd("{?}+", "äö!", 4);
+		assertMatchEnd("{?}", "a", -1);
+		assertMatchEnd("{^a}+", "äa", 2);
+	}
+
+	@Test
+	public void analysisCountsBytesOfCodePoints() {
+		LexInfo info = new LexInfo(bytes("x{äö}"));
+		assertEquals(2, info.minLength());
+		assertEquals(5, info.maxLength());
+		info = new LexInfo(bytes("{a-cä}"));
+		assertTrue(info.canStartWith((byte) 'b'));
+		assertTrue(info.canStartWith(bytes("ä")[0]));
+		assertFalse(info.canStartWith((byte) 'd'));
+		assertTrue(Lex.compile(bytes("{äö}+")).matches(bytes("öäö"), 0, 6));
+	}
+
+	@Test
+	public void jitKeepsSetsOfCodePointsInterpreted() {
+		CompiledLex lex = Lex.compile(bytes("~({ä-ü}+)"));
+		assertSame(lex, lex.jit());
+	}
+
+	@Test
+	public void compiledMatchesLikeInterpreted() {
+		String[] patterns = { "{ä-ü}+", "~({äöü}+)", "{^ä}+x", "[{é}]#+", "{a-zä-ü}+_", "~(ö{^ö}+)", "{?é}+" };
+		String[] words = { "ä", "ö", "ü", "é", "€", "x", "a", "7", " ", "東", "😀", "ß" };
+		Random rnd = new Random(19);
+		for (int i = 0; i < 500; i++) {
+			StringBuilder s = new StringBuilder();
+			for (int w = rnd.nextInt(12); w >= 0; w--)
+				s.append(words[rnd.nextInt(words.length)]);
+			byte[] data = bytes(s.toString());
+			if (rnd.nextInt(10) == 0)
+				data[rnd.nextInt(data.length)] = (byte) 0xFF;
+			for (String p : patterns)
+				assertMatchEnd(p, data, (int) Lex.match(bytes(p), 0, data, 0));
+		}
+	}
+
+	private static void assertMatchEnd(String pattern, String data, int expected) {
+		assertMatchEnd(pattern, bytes(data), expected);
+	}
+
+	private static void assertMatchEnd(String pattern, byte[] data, int expected) {
+		byte[] p = bytes(pattern);
+		String msg = pattern+" on "+new String(data, UTF_8);
+		assertEquals(msg, expected, (int) Lex.match(p, 0, data, 0));
+		assertEquals(msg, expected, (int) Lex.match(p, 0, ByteBuffer.wrap(data)));
+		assertEquals(msg, expected, (int) Lex.compile(p).match(data, 0));
+		assertEquals(msg, expected, (int) new LexProfile(p).match(data, 0));
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,74 @@
+package se.jbee.lex;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLiteral {
+
+	@Test
+	public void findsLikeNaiveSearch() {
+		Random rnd = new Random(3);
+		byte[] data = new byte[2000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (rnd.nextInt(4) - 2); // few distinct values, many partial matches
+		for (int len = 1; len < 40; len++) {
+			for (int k = 0; k < 20; k++) {
+				int at = rnd.nextInt(data.length - len);
+				byte[] literal = Arrays.copyOfRange(data, at, at + len);
+				Literal lit = new Literal(literal);
+				for (int from : new int[] { 0, at, at + 1, data.length - len }) {
+					int expected = naive(literal, data, from, data.length);
+					assertEquals(expected, lit.indexOf(data, from, data.length));
+					assertEquals(expected, Literal.indexOf(literal, data, from, data.length));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void findsAllByteValues() {
+		byte[] data = new byte[256 * 20];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) i;
+		for (int len : new int[] { 2, 5, Literal.HORSPOOL_MIN, 30 }) {
+			for (int at = 0; at < 256; at += 17) {
+				byte[] literal = Arrays.copyOfRange(data, at, at + len);
+				assertEquals(at, new Literal(literal).indexOf(data, 0, data.length));
+			}
+		}
+	}
+
+	@Test
+	public void doesNotFindBeyondEnd() {
+		byte[] data = "abcabcabd".getBytes();
+		assertEquals(8, new Literal("abd".getBytes()).indexOf(data, 0, 8));
+		assertEquals(6, new Literal("abd".getBytes()).indexOf(data, 0, 9));
+	}
+
+	@Test
+	public void findsIgnoringCase() {
+		byte[] data = "Status: ERROR, error, Error_Code".getBytes();
+		Literal error = new Literal("error".getBytes(), true);
+		assertEquals(8, error.indexOf(data, 0, data.length));
+		assertEquals(15, error.indexOf(data, 9, data.length));
+		assertEquals(22, error.indexOf(data, 16, data.length));
+		assertEquals(data.length, error.indexOf(data, 23, data.length));
+		assertEquals(27, new Literal("_code".getBytes(), true).indexOf(data, 0, data.length));
+		assertEquals(data.length, new Literal("[rror".getBytes(), true).indexOf(data, 0, data.length)); // [ is not {
+		assertEquals(data.length, new Literal("ERROR".getBytes(), false).indexOf(data, 9, data.length));
+	}
+
+	private static int naive(byte[] literal, byte[] data, int from, int to) {
+		for (int i = from; i + literal.length <= to; i++) {
+			int c = 0;
+			while (c < literal.length && data[i + c] == literal[c]) c++;
+			if (c == literal.length)
+				return i;
+		}
+		return to;
+	}
+}
@@ -0,0 +1,86 @@
+package se.jbee.lex;
+
+import static jdk.incubator.vector.VectorOperators.UNSIGNED_LT;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link ByteSearch} using the (incubating) Vector API to test as many bytes
+ * per step as the platform's preferred vector size allows (16-64).
+ *
+ * This class is only loaded when the jdk.incubator.vector module is present
+ * (--add-modules jdk.incubator.vector), otherwise the scalar
+ * {@link ByteSearch} is used. Tails shorter than a vector are done by the
+ * scalar loops.
+ */
+final class VectorByteSearch extends ByteSearch {
+
+	private static final VectorSpecies<Byte> S = ByteVector.SPECIES_PREFERRED;
+	private static final int L = S.length();
+
+	@Override
+	int indexOf(byte[] data, int from, int to, byte b) {
+		int i = from;
+		for (; i + L <= to; i += L) {
+			VectorMask<Byte> m = ByteVector.fromArray(S, data, i).eq(b);
+			if (m.anyTrue())
+				return i + m.firstTrue();
+		}
+		return super.indexOf(data, i, to, b);
+	}
+
+	@Override
+	int indexOf(byte[] data, int from, int to, byte first, byte last, int dist) {
+		int i = from;
+		for (; i + L <= to; i += L) {
+			VectorMask<Byte> m = ByteVector.fromArray(S, data, i).eq(first)
+					.and(ByteVector.fromArray(S, data, i + dist).eq(last));
+			if (m.anyTrue())
+				return i + m.firstTrue();
+		}
+		return super.indexOf(data, i, to, first, last, dist);
+	}
+
+	@Override
+	int indexOfClass(byte[] data, int from, int to, byte op) {
+		if (op == '?')
+			return from;
+		int i = from;
+		for (; i + L <= to; i += L) {
+			VectorMask<Byte> m = inClass(op, ByteVector.fromArray(S, data, i));
+			if (m.anyTrue())
+				return i + m.firstTrue();
+		}
+		return super.indexOfClass(data, i, to, op);
+	}
+
+	@Override
+	int skipClass(byte[] data, int from, int to, byte op) {
+		if (op == '?')
+			return to;
+		int i = from;
+		for (; i + L <= to; i += L) {
+			VectorMask<Byte> m = inClass(op, ByteVector.fromArray(S, data, i)).not();
+			if (m.anyTrue())
+				return i + m.firstTrue();
+		}
+		return super.skipClass(data, i, to, op);
+	}
+
+	private static VectorMask<Byte> inClass(byte op, ByteVector v) {
+		switch (op) {
+		case '#': return v.sub((byte) '0').compare(UNSIGNED_LT, (byte) 10);
+		case '@': return v.and((byte) 0xDF).sub((byte) 'A').compare(UNSIGNED_LT, (byte) 26);
+		case '_': return isWS(v);
+		case '^': return isWS(v).not();
+		case '$': return v.eq((byte) '\n').or(v.eq((byte) '\r'));
+		default : throw new IllegalArgumentException(String.valueOf((char) op));
+		}
+	}
+
+	private static VectorMask<Byte> isWS(ByteVector v) {
+		return v.eq((byte) ' ').or(v.eq((byte) '\t')).or(v.eq((byte) '\n')).or(v.eq((byte) '\r'));
+	}
+}